@@ -0,0 +1,39 @@
+package edu.uci.ics.cs221.index.inverted;
+
+/**
+ * Iterates through all the documents of a segment, from 0 to `numDocs - 1`.
+ */
+class AllDocsIterator implements DocIdIterator {
+
+    private final int numDocs;
+    private int doc;
+
+    AllDocsIterator(int numDocs) {
+        this.numDocs = numDocs;
+        doc = -1;
+    }
+
+    @Override
+    public int docId() {
+        return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+        return advance(doc + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc == NO_MORE_DOCS) {
+            return doc;
+        }
+        doc = target < numDocs ? target : NO_MORE_DOCS;
+        return doc;
+    }
+
+    @Override
+    public long cost() {
+        return numDocs;
+    }
+}
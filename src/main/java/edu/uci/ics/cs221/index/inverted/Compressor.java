@@ -1,5 +1,6 @@
 package edu.uci.ics.cs221.index.inverted;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface Compressor {
@@ -25,4 +26,22 @@ public interface Compressor {
         return decode(bytes, 0, bytes.length);
     }
 
+    /**
+     * Concatenates encoded lists of ascending integers into one encoded list,
+     * every integer of the i-th list is shifted by `shifts.get(i)`.
+     * Shifted integers of a list must be greater than the ones of the lists before it.
+     * <p>
+     * The default implementation decodes all the lists and encodes the result again,
+     * a compressor can override it to work on the encoded bytes.
+     */
+    default byte[] concat(List<byte[]> encodedLists, List<Integer> shifts) {
+        List<Integer> integers = new ArrayList<>();
+        for (int i = 0; i < encodedLists.size(); i++) {
+            for (int integer : decode(encodedLists.get(i))) {
+                integers.add(integer + shifts.get(i));
+            }
+        }
+        return encode(integers);
+    }
+
 }
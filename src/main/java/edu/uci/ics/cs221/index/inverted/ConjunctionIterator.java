@@ -0,0 +1,72 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Iterates through the documents matched by all the sub-iterators.
+ * <p>
+ * The sub-iterator with the lowest cost leads, the others are advanced to its candidates,
+ * so the number of steps is bounded by the rarest list instead of the sum of all the lists.
+ */
+class ConjunctionIterator implements DocIdIterator {
+
+    private final DocIdIterator lead;
+    private final List<DocIdIterator> others;
+
+    ConjunctionIterator(List<DocIdIterator> iterators) {
+        Preconditions.checkArgument(!iterators.isEmpty());
+        List<DocIdIterator> sorted = new ArrayList<>(iterators);
+        sorted.sort(Comparator.comparingLong(DocIdIterator::cost));
+        lead = sorted.get(0);
+        others = sorted.subList(1, sorted.size());
+    }
+
+    @Override
+    public int docId() {
+        return lead.docId();
+    }
+
+    @Override
+    public int nextDoc() {
+        return doNext(lead.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        return doNext(lead.advance(target));
+    }
+
+    /**
+     * Moves all the iterators to the first document from `doc` on they all match.
+     */
+    private int doNext(int doc) {
+        while (doc != NO_MORE_DOCS) {
+            boolean match = true;
+            for (DocIdIterator other : others) {
+                int otherDoc = other.docId();
+                if (otherDoc < doc) {
+                    otherDoc = other.advance(doc);
+                }
+                if (otherDoc > doc) {
+                    // no match at doc, start over from the candidate of the lead after otherDoc
+                    doc = lead.advance(otherDoc);
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return doc;
+            }
+        }
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public long cost() {
+        return lead.cost();
+    }
+}
@@ -0,0 +1,25 @@
+package edu.uci.ics.cs221.index.inverted;
+
+/**
+ * Thrown when a page is requested after a search-after hit whose segment isn't in the index anymore,
+ * i.e. it was merged (maybe by a background merge) since the previous page was returned.
+ * For a ranked search, it's thrown as soon as the segments changed in any way (flush, merge or deletion).
+ * <p>
+ * The hits can't be resumed from the token, the query has to start again from the first page.
+ */
+public class CursorExpiredException extends RuntimeException {
+
+    private final String searchAfter;
+
+    CursorExpiredException(String searchAfter) {
+        super("the search-after token " + searchAfter + " expired, the segments of the index changed");
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * Returns the expired search-after token
+     */
+    public String getSearchAfter() {
+        return searchAfter;
+    }
+}
@@ -60,6 +60,42 @@ public class DeltaVarLenCompressor implements Compressor {
         return res;
     }
 
+    /**
+     * Only the first delta of each list changes (it's relative to 0 in the list, and to the last integer of the previous list
+     * once concatenated), the rest of the bytes are copied as they are.
+     */
+    @Override
+    public byte[] concat(List<byte[]> encodedLists, List<Integer> shifts) {
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        int last = 0;
+        for (int i = 0; i < encodedLists.size(); i++) {
+            byte[] bytes = encodedLists.get(i);
+            if (bytes.length == 0) {
+                continue;
+            }
+
+            // scan the variable-length deltas for the first integer and the sum of all the deltas (the last integer)
+            int first = -1, firstLength = 0, sum = 0, offset = 0;
+            for (int j = 0; j < bytes.length; ++j) {
+                offset = (offset << 7) + (bytes[j] & 0x7F);
+                if ((bytes[j] & 0x80) == 0) {
+                    sum += offset;
+                    offset = 0;
+                    if (first < 0) {
+                        first = sum;
+                        firstLength = j + 1;
+                    }
+                }
+            }
+
+            byte[] b = encodeInteger(last, first + shifts.get(i));
+            res.write(b, 0, b.length);
+            res.write(bytes, firstLength, bytes.length - firstLength);
+            last = sum + shifts.get(i);
+        }
+        return res.toByteArray();
+    }
+
 
     public byte[] encodeInteger(int prev, int cur){
         int num = cur - prev;
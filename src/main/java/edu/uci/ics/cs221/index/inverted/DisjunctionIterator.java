@@ -0,0 +1,57 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Iterates through the documents matched by any of the sub-iterators.
+ * <p>
+ * The sub-iterators are kept in a min-heap by their current document,
+ * every step only moves the sub-iterators on the current document.
+ */
+class DisjunctionIterator implements DocIdIterator {
+
+    private final PriorityQueue<DocIdIterator> heap;
+    private final long cost;
+    private int doc;
+
+    DisjunctionIterator(List<DocIdIterator> iterators) {
+        Preconditions.checkArgument(!iterators.isEmpty());
+        heap = new PriorityQueue<>(iterators.size(), Comparator.comparingInt(DocIdIterator::docId));
+        heap.addAll(iterators);
+        cost = iterators.stream().mapToLong(DocIdIterator::cost).sum();
+        doc = -1;
+    }
+
+    @Override
+    public int docId() {
+        return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+        return advance(doc + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc == NO_MORE_DOCS) {
+            return doc;
+        }
+        while (heap.peek().docId() < target) {
+            DocIdIterator top = heap.poll();
+            top.advance(target);
+            heap.add(top);
+        }
+        doc = heap.peek().docId();
+        return doc;
+    }
+
+    @Override
+    public long cost() {
+        return cost;
+    }
+}
@@ -0,0 +1,33 @@
+package edu.uci.ics.cs221.index.inverted;
+
+/**
+ * Iterates through the document IDs matching a query within a segment, in ascending order.
+ * <p>
+ * Before the first call to `nextDoc()` or `advance()` the iterator is unpositioned, `docId()` returns -1.
+ * Once the documents are exhausted, `docId()` returns `NO_MORE_DOCS`.
+ */
+interface DocIdIterator {
+
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Returns the current document ID
+     */
+    int docId();
+
+    /**
+     * Moves to the next document, returns its ID or `NO_MORE_DOCS`.
+     */
+    int nextDoc();
+
+    /**
+     * Moves to the first document whose ID is at least `target`, returns its ID or `NO_MORE_DOCS`.
+     * `target` must be greater than the current document ID.
+     */
+    int advance(int target);
+
+    /**
+     * Upper bound of the number of documents, used to pick the cheapest iterator to lead a conjunction.
+     */
+    long cost();
+}
@@ -0,0 +1,51 @@
+package edu.uci.ics.cs221.index.inverted;
+
+/**
+ * Iterates through the documents matched by the included iterator but not by the excluded one.
+ * <p>
+ * The excluded iterator is only advanced to the candidates of the included one.
+ */
+class ExclusionIterator implements DocIdIterator {
+
+    private final DocIdIterator include;
+    private final DocIdIterator exclude;
+
+    ExclusionIterator(DocIdIterator include, DocIdIterator exclude) {
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+    @Override
+    public int docId() {
+        return include.docId();
+    }
+
+    @Override
+    public int nextDoc() {
+        return doNext(include.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        return doNext(include.advance(target));
+    }
+
+    private int doNext(int doc) {
+        while (doc != NO_MORE_DOCS) {
+            int excluded = exclude.docId();
+            if (excluded < doc) {
+                excluded = exclude.advance(doc);
+            }
+            if (excluded != doc) {
+                return doc;
+            }
+            doc = include.nextDoc();
+        }
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public long cost() {
+        return include.cost();
+    }
+}
@@ -1,20 +1,37 @@
 package edu.uci.ics.cs221.index.inverted;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.*;
 import edu.uci.ics.cs221.analysis.Analyzer;
+import edu.uci.ics.cs221.index.inverted.PostingCache.DecodedPostingList;
 import edu.uci.ics.cs221.storage.DocumentStore;
 import edu.uci.ics.cs221.storage.MapdbDocStore;
 import edu.uci.ics.cs221.storage.Document;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.ArrayList;
 import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 
@@ -30,9 +47,30 @@ public class InvertedIndexManager {
      * For example, a new Segment should be automatically created whenever there's 1000 documents in the buffer.
      * <p>
      * In test cases, the default flush threshold could possibly be set to any number.
+     * Set it to a non-positive number to flush by `DEFAULT_RAM_BUFFER_SIZE` only.
      */
     public static int DEFAULT_FLUSH_THRESHOLD = 1000;
 
+    /**
+     * The default RAM budget of the in-memory segment buffer, in terms of (approximate) number of bytes.
+     * A new Segment is automatically created whenever the buffer grows beyond this budget,
+     * even if there are fewer than `DEFAULT_FLUSH_THRESHOLD` documents in it.
+     * <p>
+     * Set it to a non-positive number to flush by document count only.
+     */
+    public static long DEFAULT_RAM_BUFFER_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The default number of worker threads used by `addDocuments()` to analyze documents.
+     */
+    public static int DEFAULT_ANALYSIS_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The default maximum number of documents `addDocuments()` analyzes ahead of the in-memory buffer.
+     * When this many documents are waiting, no more documents are read from the input until the oldest one is added.
+     */
+    public static int DEFAULT_ANALYSIS_QUEUE_SIZE = 256;
+
     /**
      * The default merge threshold, in terms of number of segments in the inverted index.
      * When the number of segments reaches the threshold, a merge should be automatically triggered.
@@ -42,29 +80,134 @@ public class InvertedIndexManager {
     public static int DEFAULT_MERGE_THRESHOLD = 8;
 
     /**
-     * Map keyword with list of document ID
+     * The default merge policy, it decides which segments are merged whenever a new segment is added.
+     * The default policy merges all the segments pair-wise when their number reaches `DEFAULT_MERGE_THRESHOLD`,
+     * set it to a `TieredMergePolicy` to only merge segments of about the same size.
+     */
+    public static MergePolicy DEFAULT_MERGE_POLICY = new PairwiseMergePolicy();
+
+    /**
+     * The default number of background merge threads, read when the index is opened.
+     * Searches keep using the segments being merged until the merged segment is written, then switch to it.
+     * <p>
+     * When it's 0, merges run on the thread which commits the new segment, before `addDocument()` or `flush()` returns.
+     */
+    public static int DEFAULT_MERGE_THREADS = 0;
+
+    /**
+     * The default limit of the disk bandwidth used by merges, in terms of number of bytes per second, read when the index is opened.
+     * All the merges of the index share the limit, so merges don't slow down searches too much.
+     * <p>
+     * When it's 0, merges read and write as fast as they can.
+     */
+    public static long DEFAULT_MERGE_MAX_BYTES_PER_SEC = 0;
+
+    /**
+     * The default number of threads searching the segments of the index concurrently, read when the index is opened.
+     * Results are still returned in the order of the segments.
+     * <p>
+     * When it's 0, a search goes through the segments one by one on the calling thread.
+     */
+    public static int DEFAULT_SEARCH_THREADS = 0;
+
+    /**
+     * The default size of a docID range, in terms of number of documents.
+     * With search threads, a segment with at least twice as many documents is split into docID ranges (up to one per thread)
+     * which are searched concurrently, so a query on a fully merged index still uses all the threads.
+     */
+    public static int DEFAULT_SEARCH_RANGE_DOCS = 100000;
+
+    /**
+     * The default maximum number of query results kept in the query result cache, read when the index is opened.
+     * Results are cached until the segments change (flush, merge or deletion).
+     * <p>
+     * When it's 0, there is no query result cache.
+     */
+    public static int DEFAULT_QUERY_CACHE_SIZE = 0;
+
+    /**
+     * The default size of the decoded posting list cache, in terms of number of bytes, read when the index is opened.
+     * Every query type reads the posting lists (and term frequencies) of frequent keywords from the cache
+     * instead of reading and decoding them again.
+     * <p>
+     * When it's 0, there is no posting list cache.
+     */
+    public static long DEFAULT_POSTING_CACHE_BYTES = 0;
+
+    /**
+     * The default merge backlog, in terms of number of segments waiting to be merged, read when the index is opened.
+     * When merges fall behind this much, the merge bandwidth limit doubles for every further `DEFAULT_MERGE_BACKLOG` segments.
+     */
+    public static int DEFAULT_MERGE_BACKLOG = 16;
+
+    /**
+     * The default maximum number of full buffers being flushed in the background.
+     * When it's positive, a full buffer is handed to a background flusher and a fresh buffer keeps accepting documents,
+     * `addDocument()` only blocks when this many flushes are already in flight.
+     * <p>
+     * When it's 0, full buffers are flushed synchronously by `addDocument()`.
+     */
+    public static int DEFAULT_MAX_INFLIGHT_FLUSHES = 0;
+
+    /**
+     * In-memory buffers not used by any thread at the moment.
+     * Every `addDocument()` call checks out a buffer of its own, so threads adding documents concurrently never share a buffer,
+     * and each buffer is flushed as an independent segment by the thread that fills it up.
+     */
+    private final Deque<SegmentBuffer> freeBuffers;
+
+    /**
+     * Segments committed to the index, in the order of their documents (guarded by `this`).
+     * Readers take a snapshot of the segments with `acquireSegments()`, the files of a segment merged away
+     * are only deleted once every snapshot containing it is released.
+     */
+    private final List<SegmentInfo> segments;
+
+    /**
+     * Document frequencies of the keywords over the segments of the index (guarded by `this`)
+     */
+    private final TermStatistics termStatistics;
+
+    /**
+     * Next name of a segment, names are never reused
      */
-    private Table<String, Integer, List<Integer>> keyWordMap;
+    private final AtomicInteger nextGeneration;
 
+    private final MergeScheduler mergeScheduler;
 
-    private DocumentStore mapDB;
+    private final MergeRateLimiter mergeRateLimiter;
 
     /**
-     * Number of sequence in disk (for merge)
+     * Number of segments scheduled for a merge which is not done yet,
+     * read by the rate limiter of the merges without taking the lock of the index
      */
-    private int NUM_SEQ;
+    private final AtomicInteger numPendingSegments;
 
     /**
-     * Document Counter (for flush)
+     * Number of threads searching the segments, and the threads (created with the first concurrent search)
      */
-    private Integer document_Counter;
+    private final int numSearchThreads;
+    private ForkJoinPool searchExecutor;
 
+    /**
+     * Generation of the segments, incremented whenever the segments or their deleted documents change,
+     * and the results of the queries on the current generation (null if there is no cache)
+     */
+    private long segmentGeneration;
+    private final QueryResultCache queryCache;
 
     /**
-     * Total length of keyword (in order to build dictionary on page file)
+     * Decoded posting lists of the segments, null if there is no cache
      */
-    private Integer totalLengthKeyword;
+    private final PostingCache postingCache;
 
+    /**
+     * Background flusher and the number of full buffers being written but not committed yet
+     */
+    private ExecutorService flushExecutor;
+    private int inFlightFlushes;
+    private final Object flushLock = new Object();
+    private volatile Throwable flushException;
 
     private String idxFolder;
 
@@ -74,26 +217,16 @@ public class InvertedIndexManager {
 
     private enum SearchOperation {
         AND_SEARCH,
-        OR_SEARCH
+        OR_SEARCH,
+        PHRASE_SEARCH,
+        PROXIMITY_SEARCH,
+        BOOLEAN_QUERY_SEARCH,
+        TFIDF_SEARCH
     }
 
 
-    // ranking param
-    private Map<String, List<Integer>> rankingDictMap;
-
-    private Integer rankingSegId;
-
-
     private InvertedIndexManager(String indexFolder, Analyzer analyzer) {
-        document_Counter = 0;
-        idxFolder = indexFolder + "/";
-        NUM_SEQ = 0;
-        document_Counter = 0;
-        totalLengthKeyword = 0;
-        keyWordMap = TreeBasedTable.create();
-        iiAnalyzer = analyzer;
-        rankingDictMap = new TreeMap<>();
-        rankingSegId = -1;
+        this(indexFolder, analyzer, null);
     }
 
     /**
@@ -103,16 +236,24 @@ public class InvertedIndexManager {
      * @param analyzer
      */
     private InvertedIndexManager(String indexFolder, Analyzer analyzer, Compressor compressor) {
-        document_Counter = 0;
         iiCompressor = compressor;
         idxFolder = indexFolder + "/";
-        NUM_SEQ = 0;
-        document_Counter = 0;
-        totalLengthKeyword = 0;
-        keyWordMap = TreeBasedTable.create();
+        freeBuffers = new ArrayDeque<>();
         iiAnalyzer = analyzer;
-        rankingDictMap = new TreeMap<>();
-        rankingSegId = -1;
+        postingCache = DEFAULT_POSTING_CACHE_BYTES > 0 ? new PostingCache(DEFAULT_POSTING_CACHE_BYTES) : null;
+        segments = loadSegments();
+        for (SegmentInfo segment : segments) {
+            segment.deletedDocFreqs = countKeywords(readKeywords(segment.name, segment.deleted), segment.deleted);
+        }
+        termStatistics = new TermStatistics();
+        segments.forEach(termStatistics::addSegment);
+        nextGeneration = new AtomicInteger(nextGeneration());
+        mergeScheduler = new MergeScheduler(DEFAULT_MERGE_THREADS, idxFolder);
+        numPendingSegments = new AtomicInteger();
+        mergeRateLimiter = new MergeRateLimiter(DEFAULT_MERGE_MAX_BYTES_PER_SEC, DEFAULT_MERGE_BACKLOG, numPendingSegments::get);
+        numSearchThreads = DEFAULT_SEARCH_THREADS;
+        segmentGeneration = 0;
+        queryCache = DEFAULT_QUERY_CACHE_SIZE > 0 ? new QueryResultCache(DEFAULT_QUERY_CACHE_SIZE) : null;
     }
 
     /**
@@ -168,62 +309,271 @@ public class InvertedIndexManager {
      */
     public void addDocument(Document document) {
         // process (analyzer) text in the document
-        List<String> word = iiAnalyzer.analyze(document.getText());
-        List<Integer> positions;
-        int wordPosition = 0;
-        // record on hashmap
-        for (String w : word) {
-            if (!keyWordMap.containsRow(w)) {
-                totalLengthKeyword += w.getBytes().length;
+        addAnalyzedDocument(document, iiAnalyzer.analyze(document.getText()));
+    }
+
+    /**
+     * Adds a batch of documents to the inverted index.
+     * Documents are analyzed concurrently by `DEFAULT_ANALYSIS_THREADS` workers,
+     * and then added to the in-memory buffer in the order of the iterable, exactly as calling `addDocument()` on each of them.
+     *
+     * @param documents
+     */
+    public void addDocuments(Iterable<Document> documents) {
+        Preconditions.checkNotNull(documents);
+        if (DEFAULT_ANALYSIS_THREADS <= 1) {
+            documents.forEach(this::addDocument);
+            return;
+        }
+
+        ExecutorService analysisPool = Executors.newFixedThreadPool(DEFAULT_ANALYSIS_THREADS);
+        // documents waiting for their tokens, in input order (bounded by DEFAULT_ANALYSIS_QUEUE_SIZE)
+        Deque<Pair<Document, Future<List<String>>>> pending = new ArrayDeque<>();
+        try {
+            for (Document document : documents) {
+                Preconditions.checkNotNull(document);
+                if (pending.size() >= Math.max(1, DEFAULT_ANALYSIS_QUEUE_SIZE)) {
+                    addPendingDocument(pending.poll());
+                }
+                pending.add(Pair.of(document, analysisPool.submit(() -> iiAnalyzer.analyze(document.getText()))));
             }
-            positions = keyWordMap.get(w, document_Counter);
-            if (positions == null) {
-                positions = new ArrayList<>();
+            while (!pending.isEmpty()) {
+                addPendingDocument(pending.poll());
+            }
+        } finally {
+            analysisPool.shutdownNow();
+        }
+    }
+
+    private void addPendingDocument(Pair<Document, Future<List<String>>> pending) {
+        try {
+            addAnalyzedDocument(pending.getLeft(), pending.getRight().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Adds a document whose text is already processed by the analyzer to the in-memory buffer.
+     * It could be called by multiple threads at the same time, each of them fills its own buffer.
+     */
+    private void addAnalyzedDocument(Document document, List<String> word) {
+        checkFlushException();
+        SegmentBuffer buffer = obtainBuffer();
+        boolean full = false;
+        try {
+            buffer.addDocument(document, word);
+            full = isBufferFull(buffer);
+        } finally {
+            if (!full) {
+                releaseBuffer(buffer);
             }
-            positions.add(wordPosition++);
-            keyWordMap.put(w, document_Counter, positions);
+        }
+        if (!full) {
+            return;
         }
 
-        // add document into DocStore
+        // the full buffer is out of the pool, no other thread could add documents to it
+        if (DEFAULT_MAX_INFLIGHT_FLUSHES > 0) {
+            flushInBackground(buffer);
+        } else {
+            flushBuffer(buffer);
+        }
+    }
 
-        File f = new File(idxFolder + "DocStore_" + NUM_SEQ);
-        if (!f.exists()) {
-            mapDB = MapdbDocStore.createOrOpen(idxFolder + "DocStore_" + NUM_SEQ);
+    /**
+     * Flushes all the documents in the in-memory segment buffer to disk. If the buffer is empty, it should not do anything.
+     * flush() writes the segment to disk containing the posting list and the corresponding document store.
+     * <p>
+     * flush() also waits for the flushes in flight, so all the documents added before are on disk when it returns.
+     */
+    public void flush() {
+        waitForFlushes(0);
+        checkFlushException();
+
+        List<SegmentBuffer> frozen = new ArrayList<>();
+        synchronized (freeBuffers) {
+            for (Iterator<SegmentBuffer> it = freeBuffers.iterator(); it.hasNext(); ) {
+                SegmentBuffer buffer = it.next();
+                if (!buffer.isEmpty()) {
+                    frozen.add(buffer);
+                    it.remove();
+                }
+            }
         }
+        for (SegmentBuffer buffer : frozen) {
+            flushBuffer(buffer);
+        }
+
+        // buffers filled up by other threads in the meantime
+        waitForFlushes(0);
+        checkFlushException();
+        mergeScheduler.checkMergeException();
+    }
+
+    /**
+     * Waits until all the merges running in the background are done.
+     */
+    public void waitForMerges() {
+        mergeScheduler.waitForMerges();
+    }
 
-        mapDB.addDocument(document_Counter, document);
+    /**
+     * Waits for the flushes, merges and searches in flight, then stops the background threads of the index.
+     * Documents still in the in-memory buffer are not flushed, call `flush()` first to keep them.
+     * The index can't be used anymore once it's closed.
+     */
+    public void close() {
+        waitForFlushes(0);
+        ExecutorService flusher;
+        synchronized (flushLock) {
+            flusher = flushExecutor;
+            flushExecutor = null;
+        }
+        if (flusher != null) {
+            shutdown(flusher);
+        }
+        // the flushes are committed, no merge is scheduled anymore
+        mergeScheduler.close();
+        ForkJoinPool searchers;
+        synchronized (this) {
+            searchers = searchExecutor;
+            searchExecutor = null;
+        }
+        if (searchers != null) {
+            shutdown(searchers);
+        }
+        checkFlushException();
+    }
 
+    /**
+     * Stops accepting tasks and waits until the running ones are done.
+     */
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
 
-        ++document_Counter;
+    private SegmentBuffer obtainBuffer() {
+        synchronized (freeBuffers) {
+            SegmentBuffer buffer = freeBuffers.poll();
+            return buffer != null ? buffer : newBuffer();
+        }
+    }
 
-        if (document_Counter == DEFAULT_FLUSH_THRESHOLD) {
-            flush();
+    private void releaseBuffer(SegmentBuffer buffer) {
+        synchronized (freeBuffers) {
+            freeBuffers.push(buffer);
         }
+    }
 
+    /**
+     * Writes a frozen buffer on the calling thread.
+     */
+    private void flushBuffer(SegmentBuffer frozen) {
+        synchronized (flushLock) {
+            ++inFlightFlushes;
+        }
+        try {
+            writeSegment(frozen);
+        } finally {
+            finishFlush();
+        }
     }
 
     /**
-     * Flushes all the documents in the in-memory segment buffer to disk. If the buffer is empty, it should not do anything.
-     * flush() writes the segment to disk containing the posting list and the corresponding document store.
+     * Hands a frozen buffer to the background flusher.
+     * Blocks while `DEFAULT_MAX_INFLIGHT_FLUSHES` flushes are already in flight.
      */
-    public void flush() {
-        if (document_Counter == 0) {
-            return;
+    private void flushInBackground(SegmentBuffer frozen) {
+        synchronized (flushLock) {
+            while (inFlightFlushes >= DEFAULT_MAX_INFLIGHT_FLUSHES) {
+                awaitFlush();
+            }
+            ++inFlightFlushes;
+            if (flushExecutor == null) {
+                // a single flusher commits the frozen buffers in the order they were frozen
+                flushExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "flusher " + idxFolder);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+        flushExecutor.execute(() -> {
+            try {
+                writeSegment(frozen);
+            } catch (Throwable e) {
+                flushException = e;
+            } finally {
+                finishFlush();
+            }
+        });
+    }
+
+    private void finishFlush() {
+        synchronized (flushLock) {
+            --inFlightFlushes;
+            flushLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until at most `maxInFlight` flushes are in flight.
+     */
+    private void waitForFlushes(int maxInFlight) {
+        synchronized (flushLock) {
+            while (inFlightFlushes > maxInFlight) {
+                awaitFlush();
+            }
         }
+    }
 
-        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, Integer.toString(NUM_SEQ), iiCompressor);
+    private void awaitFlush() {
+        try {
+            flushLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
 
+    /**
+     * Rethrows the failure of a background flush on a writer thread.
+     */
+    private void checkFlushException() {
+        Throwable e = flushException;
+        if (e != null) {
+            flushException = null;
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
 
-        // allocate dictionary bytebuffer
-        segMgr.allocateByteBuffer(totalLengthKeyword, keyWordMap.rowMap().size());
+    /**
+     * Writes a frozen buffer to disk, then commits it as the next segment.
+     */
+    private void writeSegment(SegmentBuffer frozen) {
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, frozen.name, iiCompressor);
 
 
-        // allocate the position on start point of keyword
-        segMgr.allocateKeywordStart(totalLengthKeyword);
+        // start the dictionary, it's written page by page along with the posting lists
+        segMgr.allocateDictionary(frozen.totalLengthKeyword, frozen.keyWordMap.rowMap().size());
 
         // insert keyword, metadata, docID in one pass
-        for (Map.Entry<String, Map<Integer, List<Integer>>> entry : keyWordMap.rowMap().entrySet()) {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (Map.Entry<String, Map<Integer, List<Integer>>> entry : frozen.keyWordMap.rowMap().entrySet()) {
             segMgr.insertKeyWord(entry.getKey());
+            docFreqs.put(entry.getKey(), entry.getValue().size());
             byte[] encodedPostingList;
             if (isPositionalIndex()) {
                 encodedPostingList = iiCompressor.encode(entry.getValue().keySet().stream().collect(Collectors.toCollection(ArrayList::new)));
@@ -245,49 +595,199 @@ public class InvertedIndexManager {
 
         }
 
-        // allocate the number of keyword on start point of dictionary
-        segMgr.allocateNumberOfKeyWord(keyWordMap.rowMap().size());
-
-
-        // append all dictionary byte to new file
-        segMgr.appendAllbyte();
+        // write the remaining dictionary pages to new file
+        segMgr.finishDictionary();
         segMgr.appendPage();
 
         segMgr.close();
 
-        reset();
+        // bulk load all the documents of the segment in one pass
+        DocumentStore docStore = MapdbDocStore.createWithBulkLoad(idxFolder + "DocStore_" + frozen.name, frozen.documents.entrySet().iterator());
+        docStore.close();
+
+        commitSegment(new SegmentInfo(frozen.name, frozen.documentCounter, docFreqs));
+    }
+
+    /**
+     * Publishes a fully written segment as the last segment of the index,
+     * and runs the merges chosen by `DEFAULT_MERGE_POLICY`.
+     * Segments flushed by different threads are committed one at a time, in the order they finish.
+     */
+    private void commitSegment(SegmentInfo segment) {
+        synchronized (this) {
+            segments.add(segment);
+            termStatistics.addSegment(segment);
+            writeSegmentsFile();
+            segmentsChanged();
+        }
+
+        maybeMerge();
+    }
 
-        if (NUM_SEQ == DEFAULT_MERGE_THRESHOLD) {
-            mergeAllSegments();
+    /**
+     * Schedules the merges chosen by the merge policy, every merge asks the policy again once it's done.
+     */
+    private void maybeMerge() {
+        for (List<SegmentInfo> merge : findMerges()) {
+            mergeScheduler.merge(() -> {
+                runMerge(merge);
+                maybeMerge();
+            });
         }
     }
 
+    /**
+     * Asks the merge policy for merges, skipping the ones with a segment which is already being merged.
+     */
+    private synchronized List<List<SegmentInfo>> findMerges() {
+        List<Integer> segmentSizes = new ArrayList<>();
+        for (SegmentInfo segment : segments) {
+            segmentSizes.add(segment.numLiveDocs());
+        }
+
+        List<List<SegmentInfo>> merges = new ArrayList<>();
+        for (List<Integer> merge : DEFAULT_MERGE_POLICY.findMerges(segmentSizes)) {
+            Preconditions.checkArgument(merge.size() >= 2 && merge.get(merge.size() - 1) - merge.get(0) == merge.size() - 1);
+            List<SegmentInfo> run = new ArrayList<>();
+            for (int i : merge) {
+                run.add(segments.get(i));
+            }
+            if (run.stream().anyMatch(segment -> segment.merging)) {
+                continue;
+            }
+            run.forEach(segment -> segment.merging = true);
+            numPendingSegments.addAndGet(run.size());
+            merges.add(run);
+        }
+        return merges;
+    }
 
     /**
-     * Merges all the disk segments of the inverted index pair-wise.
+     * Merges consecutive segments into a new segment, then swaps the new segment in their place.
+     * Searches keep reading the old segments until the swap, the old files are deleted once they are released.
+     * <p>
+     * Deleted documents are dropped, the segments are simply removed if all their documents are deleted.
      */
-    public void mergeAllSegments() {
-        // merge only happens at even number of segments
-        Preconditions.checkArgument(getNumSegments() % 2 == 0);
-        String seg1 = "";
-        File[] files = getFiles("segment");
+    private void runMerge(List<SegmentInfo> run) {
+        List<BitSet> deleted = new ArrayList<>();
+        for (SegmentInfo segment : run) {
+            deleted.add(segment.deleted);
+        }
 
-        sort(files);
+        SegmentInfo merged = null;
+        boolean done = false;
+        try {
+            merged = writeMergedSegment(run, deleted);
+            done = true;
+        } finally {
+            synchronized (this) {
+                numPendingSegments.addAndGet(-run.size());
+                if (!done) {
+                    run.forEach(segment -> segment.merging = false);
+                } else {
+                    int first = segments.indexOf(run.get(0));
+                    segments.subList(first, first + run.size()).clear();
+                    run.forEach(termStatistics::removeSegment);
+                    if (merged != null) {
+                        carryDeletes(run, deleted, merged);
+                        segments.add(first, merged);
+                        termStatistics.addSegment(merged);
+                    }
+                    writeSegmentsFile();
+                    segmentsChanged();
+                    // drop the references held by the index
+                    releaseSegments(run);
+                }
+            }
+        }
+    }
 
-        for (int i = 0; i < files.length; ++i) {
-            if (seg1 != "") {
-                // merge
-                merge(Integer.parseInt(seg1.substring(8)), Integer.parseInt(files[i].getName().substring(8)));
+    /**
+     * Writes the live documents of the segments into a new segment, returns null if there is no live document.
+     */
+    private SegmentInfo writeMergedSegment(List<SegmentInfo> run, List<BitSet> deleted) {
+        List<String> sources = new ArrayList<>();
+        int numDocs = 0;
+        for (int i = 0; i < run.size(); i++) {
+            sources.add(run.get(i).name);
+            numDocs += run.get(i).numDocs - deleted.get(i).cardinality();
+        }
+        if (numDocs == 0) {
+            return null;
+        }
+        String target = newSegmentName();
+        new SegmentMerger(idxFolder, iiCompressor, mergeRateLimiter).merge(sources, deleted, target);
+        return new SegmentInfo(target, numDocs, readDocFreqs(target));
+    }
 
-                // after merge
-                seg1 = "";
-            } else {
-                seg1 = files[i].getName();
+    /**
+     * Applies the deletions made while the segments were being merged to the merged segment
+     * (called with the lock of the index held).
+     *
+     * @param deleted deleted documents of each segment when the merge started
+     */
+    private void carryDeletes(List<SegmentInfo> run, List<BitSet> deleted, SegmentInfo merged) {
+        BitSet mergedDeleted = new BitSet();
+        int docBase = 0;
+        for (int i = 0; i < run.size(); i++) {
+            BitSet before = deleted.get(i);
+            BitSet after = run.get(i).deleted;
+            for (int doc = after.nextSetBit(0); doc >= 0; doc = after.nextSetBit(doc + 1)) {
+                if (!before.get(doc)) {
+                    // documents deleted before the merge are not in the merged segment
+                    mergedDeleted.set(docBase + doc - before.get(0, doc).cardinality());
+                }
+            }
+            docBase += run.get(i).numDocs - before.cardinality();
+        }
+        if (!mergedDeleted.isEmpty()) {
+            writeDeletedDocs(merged.name, mergedDeleted);
+            merged.deleted = mergedDeleted;
+            merged.deletedDocFreqs = countKeywords(readKeywords(merged.name, mergedDeleted), mergedDeleted);
+        }
+    }
+
+    /**
+     * Merges all the disk segments of the inverted index pair-wise.
+     */
+    public void mergeAllSegments() {
+        // a merge might be running in the background
+        mergeScheduler.waitForMerges();
+
+        List<List<SegmentInfo>> merges = new ArrayList<>();
+        synchronized (this) {
+            // merge only happens at even number of segments
+            Preconditions.checkArgument(segments.size() % 2 == 0);
+
+            // segments whose documents are all deleted are dropped, the last segment is left alone if the rest is odd
+            List<SegmentInfo> dropped = new ArrayList<>();
+            for (SegmentInfo segment : segments) {
+                if (!segment.merging && segment.numLiveDocs() == 0) {
+                    dropped.add(segment);
+                }
+            }
+            if (!dropped.isEmpty()) {
+                segments.removeAll(dropped);
+                dropped.forEach(termStatistics::removeSegment);
+                writeSegmentsFile();
+                segmentsChanged();
+                releaseSegments(dropped);
+            }
+
+            for (int i = 1; i < segments.size(); i += 2) {
+                List<SegmentInfo> run = Arrays.asList(segments.get(i - 1), segments.get(i));
+                if (run.stream().anyMatch(segment -> segment.merging)) {
+                    continue;
+                }
+                run.forEach(segment -> segment.merging = true);
+                numPendingSegments.addAndGet(run.size());
+                merges.add(run);
             }
         }
 
-        // minus NUM_SEQ by half
-        NUM_SEQ = NUM_SEQ / 2;
+        for (List<SegmentInfo> merge : merges) {
+            runMerge(merge);
+        }
     }
 
 
@@ -300,13 +800,23 @@ public class InvertedIndexManager {
      * @return a iterator of documents matching the query
      */
     public Iterator<Document> searchQuery(String keyword) {
+        return fetchDocuments(searchQuery(keyword, SearchPage.ALL));
+    }
+
+    /**
+     * Performs a single keyword search on the inverted index, returns a page of the hits.
+     *
+     * @param keyword keyword, cannot be null.
+     * @param page    the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchQuery(String keyword, SearchPage page) {
         Preconditions.checkNotNull(keyword);
-        List<Document> iterator = new ArrayList<>();
         if (keyword.equals("")) {
-            return iterator.iterator();
+            return emptyCursor();
         }
 
-        return searchKewords(iiAnalyzer.analyze(keyword), SearchOperation.AND_SEARCH);
+        return searchKewords(iiAnalyzer.analyze(keyword), SearchOperation.AND_SEARCH, page);
     }
 
     /**
@@ -316,16 +826,26 @@ public class InvertedIndexManager {
      * @return a iterator of documents matching the query
      */
     public Iterator<Document> searchAndQuery(List<String> keywords) {
+        return fetchDocuments(searchAndQuery(keywords, SearchPage.ALL));
+    }
+
+    /**
+     * Performs an AND boolean search on the inverted index, returns a page of the hits.
+     *
+     * @param keywords a list of keywords in the AND query
+     * @param page     the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchAndQuery(List<String> keywords, SearchPage page) {
         Preconditions.checkNotNull(keywords);
-        List<Document> iterator = new ArrayList<>();
         if (keywords.isEmpty() || keywords.contains("")) {
-            return iterator.iterator();
+            return emptyCursor();
         }
         List<String> words = new ArrayList<>();
         for (int i = 0; i < keywords.size(); i++) {
             words.addAll(iiAnalyzer.analyze(keywords.get(i)));
         }
-        return searchKewords(Lists.newArrayList(words), SearchOperation.AND_SEARCH);
+        return searchKewords(Lists.newArrayList(words), SearchOperation.AND_SEARCH, page);
     }
 
     /**
@@ -335,16 +855,26 @@ public class InvertedIndexManager {
      * @return a iterator of documents matching the query
      */
     public Iterator<Document> searchOrQuery(List<String> keywords) {
+        return fetchDocuments(searchOrQuery(keywords, SearchPage.ALL));
+    }
+
+    /**
+     * Performs an OR boolean search on the inverted index, returns a page of the hits.
+     *
+     * @param keywords a list of keywords in the OR query
+     * @param page     the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchOrQuery(List<String> keywords, SearchPage page) {
         Preconditions.checkNotNull(keywords);
-        List<Document> iterator = new ArrayList<>();
         if (keywords.isEmpty()) {
-            return iterator.iterator();
+            return emptyCursor();
         }
         List<String> words = new ArrayList<>();
         for (int i = 0; i < keywords.size(); i++) {
             words.addAll(iiAnalyzer.analyze(keywords.get(i)));
         }
-        return searchKewords(Lists.newArrayList(words), SearchOperation.OR_SEARCH);
+        return searchKewords(Lists.newArrayList(words), SearchOperation.OR_SEARCH, page);
     }
 
     /**
@@ -358,119 +888,234 @@ public class InvertedIndexManager {
      * @return a iterator of documents matching the query
      */
     public Iterator<Document> searchPhraseQuery(List<String> phrase) {
+        return fetchDocuments(searchPhraseQuery(phrase, SearchPage.ALL));
+    }
+
+    /**
+     * Performs a phrase search on a positional index, returns a page of the hits.
+     * Throws UnsupportedOperationException if the inverted index is not a positional index.
+     *
+     * @param phrase, a consecutive sequence of keywords
+     * @param page    the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchPhraseQuery(List<String> phrase, SearchPage page) {
         Preconditions.checkNotNull(phrase);
-        List<Document> iterator = new ArrayList<>();
 
         if (!isPositionalIndex()) {
             throw new UnsupportedOperationException();
         }
 
         if (phrase.isEmpty()) {
-            return iterator.iterator();
+            return emptyCursor();
         }
 
         //concat the list of phrases
         //do analyzer
         List<String> keywords = iiAnalyzer.analyze(String.join(" ", phrase));
-        File[] files = getFiles("segment");
-        sort(files);
-        //loop through every segment
-        for (int i = 0; i < files.length; ++i) {
-
-            SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, files[i].getName().substring(8), iiCompressor);
-            segMgr.readInitiate();
-            Map<String, List<Integer>> dictMap = new TreeMap<>();
-            //load all the keywords of the segment
-            while (segMgr.hasKeyWord()) {
-                List<Integer> l1 = new ArrayList<>();
-                String k1 = segMgr.readKeywordAndDict(l1);
-                dictMap.put(k1, l1);
-            }
-            //if keywords in segment doesn't contain query then continue
-            if (!dictMap.keySet().containsAll(keywords)) {
-                continue;
-            }
-            //loop through every token from query
-            Map<Integer, List<Integer>> postingList1, postingList2;
-            segMgr.readPostingInitiate();
-            segMgr.readPositionMetaInitiate();
-            segMgr.readPositionInitiate();
+        return openCursor(Arrays.asList(SearchOperation.PHRASE_SEARCH, keywords), page, segment -> searchPhraseSegment(segment, keywords));
+    }
 
+    /**
+     * Performs a proximity search on a positional index:
+     * the document must contain all the terms within a window of `terms.size() + slop` positions,
+     * and in the order of the terms if `ordered` is true.
+     * <p>
+     * Throws UnsupportedOperationException if the inverted index is not a positional index.
+     *
+     * @param terms   the terms of the query
+     * @param slop    number of other words allowed in the window, 0 means the terms are adjacent
+     * @param ordered whether the terms must be in order
+     * @return a iterator of documents matching the query
+     */
+    public Iterator<Document> searchProximityQuery(List<String> terms, int slop, boolean ordered) {
+        return fetchDocuments(searchProximityQuery(terms, slop, ordered, SearchPage.ALL));
+    }
 
-            //get all docs and its metadata of the first token
-            postingList1 = segMgr.readDocIdList(dictMap.get(keywords.get(0)).get(0),
-                    dictMap.get(keywords.get(0)).get(1), dictMap.get(keywords.get(0)).get(2), dictMap.get(keywords.get(0)).get(3));
-            for (int j = 1; j < keywords.size(); j++) {
-                //inside the loop get the next token from phrase
-                //then get all docs of keyword two
-                Map<Integer, List<Integer>> tmpPostingList = new TreeMap<>();
+    /**
+     * Performs a proximity search on a positional index, returns a page of the hits.
+     * Throws UnsupportedOperationException if the inverted index is not a positional index.
+     *
+     * @param terms   the terms of the query
+     * @param slop    number of other words allowed in the window, 0 means the terms are adjacent
+     * @param ordered whether the terms must be in order
+     * @param page    the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchProximityQuery(List<String> terms, int slop, boolean ordered, SearchPage page) {
+        Preconditions.checkNotNull(terms);
+        Preconditions.checkArgument(slop >= 0, "slop must be non-negative");
 
+        if (!isPositionalIndex()) {
+            throw new UnsupportedOperationException();
+        }
 
-                postingList2 = segMgr.readDocIdList(dictMap.get(keywords.get(j)).get(0),
-                        dictMap.get(keywords.get(j)).get(1), dictMap.get(keywords.get(j)).get(2), dictMap.get(keywords.get(j)).get(3));
-                //loop through all docs of keword 1
-                for (Map.Entry<Integer, List<Integer>> entry : postingList1.entrySet()) {
-                    //if docid is not found in second keyword then continue
-                    if (!postingList2.containsKey(entry.getKey())) {
-                        continue;
-                    }
-                    // else get the positional of both
-                    List<Integer> positionalList1 = segMgr.readPosList(entry.getValue().get(0), entry.getValue().get(1),
-                            entry.getValue().get(2));
-                    List<Integer> positionalList2 = segMgr.readPosList(postingList2.get(entry.getKey()).get(0), postingList2.get(entry.getKey()).get(1),
-                            postingList2.get(entry.getKey()).get(2));
-
-                    //loop through every position in doc1 of keyword1
-                    int pos = 0;
-                    boolean found = false;
-                    for (int k = 0; k < positionalList1.size() && pos < positionalList2.size(); k++) {
-                        while (pos < positionalList2.size() && positionalList1.get(k) > positionalList2.get(pos)) {
-                            pos++;
-                        }
-
-                        if (pos < positionalList2.size() && positionalList1.get(k) + j == positionalList2.get(pos)) {
-                            found = true;
-                            break;
-                        }
-                    }
+        if (terms.isEmpty()) {
+            return emptyCursor();
+        }
 
-                    // if found the position of two words are consecutive, store the docId and its metadata of the second word
-                    if (found) {
-                        List<Integer> lst = new ArrayList<>();
-                        lst.add(entry.getValue().get(0));
-                        lst.add(entry.getValue().get(1));
-                        lst.add(entry.getValue().get(2));
-                        tmpPostingList.put(entry.getKey(), lst);
-                    }
-                }
-                postingList1 = tmpPostingList;
-            }
+        List<String> keywords = iiAnalyzer.analyze(String.join(" ", terms));
+        return openCursor(Arrays.asList(SearchOperation.PROXIMITY_SEARCH, keywords, slop, ordered), page,
+                segment -> searchPositionalSegment(segment, keywords,
+                        (postingLists, reader) -> new ProximityMatcher(keywords, slop, ordered, postingLists, reader).match(segment.deleted)));
+    }
 
-            //System.out.println(postingList1);
-            DocumentStore mapDBGetIdx = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + files[i].getName().substring(8));
+    /**
+     * Returns the IDs of the documents of a segment containing the phrase, in ascending order.
+     * See `PhraseMatcher` for the order the posting lists and the position lists are read in.
+     */
+    private List<Integer> searchPhraseSegment(SegmentInfo segment, List<String> keywords) {
+        return searchPositionalSegment(segment, keywords,
+                (postingLists, reader) -> new PhraseMatcher(keywords, postingLists, reader).match(segment.deleted));
+    }
 
-            for (Map.Entry<Integer, List<Integer>> entry : postingList1.entrySet()) {
-                iterator.add(mapDBGetIdx.getDocument(entry.getKey()));
+    /**
+     * Reads the posting lists of the keywords of a positional query in a segment, and matches the positions of the documents
+     * with `match`. Returns nothing if a keyword is missing from the segment.
+     */
+    private List<Integer> searchPositionalSegment(SegmentInfo segment, List<String> keywords,
+                                                  BiFunction<Map<String, DecodedPostingList>, PositionReader, List<Integer>> match) {
+        if (keywords.isEmpty()) {
+            return new ArrayList<>();
+        }
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment.name, iiCompressor);
+        try {
+            //load the keywords of the query
+            Map<String, List<Integer>> dictMap = readDictionary(segMgr, keywords);
+            //if keywords in segment doesn't contain query then continue
+            if (!dictMap.keySet().containsAll(keywords)) {
+                return new ArrayList<>();
             }
-            mapDBGetIdx.close();
+            Map<String, DecodedPostingList> postingLists = readPostingLists(segMgr, segment, dictMap);
+            segMgr.readPositionInitiate();
+
+            return match.apply(postingLists, positionReader(segMgr, postingLists));
+        } finally {
             segMgr.close();
         }
-        return iterator.iterator();
+    }
 
+    /**
+     * Reads the position lists of the documents of the posting lists, the position file must be initiated.
+     */
+    private static PositionReader positionReader(SegmentInDiskManager segMgr, Map<String, DecodedPostingList> postingLists) {
+        return (keyword, index) -> {
+            int[] positions = postingLists.get(keyword).positions;
+            return segMgr.readPosList(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2])
+                    .stream().mapToInt(Integer::intValue).toArray();
+        };
     }
 
+    /**
+     * Performs a boolean query (keywords and phrases combined by AND, OR and NOT) on the inverted index, see `Query`.
+     * Throws UnsupportedOperationException if the query has a phrase and the inverted index is not a positional index.
+     *
+     * @param query the query, cannot be null
+     * @return a iterator of documents matching the query
+     */
+    public Iterator<Document> searchBooleanQuery(Query query) {
+        return fetchDocuments(searchBooleanQuery(query, SearchPage.ALL));
+    }
+
+    /**
+     * Performs a boolean query on the inverted index, returns a page of the hits.
+     *
+     * @param query the query, cannot be null
+     * @param page  the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchBooleanQuery(Query query, SearchPage page) {
+        Preconditions.checkNotNull(query);
+        if (query.hasPhrase() && !isPositionalIndex()) {
+            throw new UnsupportedOperationException();
+        }
+
+        Query analyzed = query.analyze(iiAnalyzer);
+        if (analyzed == null) {
+            return emptyCursor();
+        }
+        return openCursor(Arrays.asList(SearchOperation.BOOLEAN_QUERY_SEARCH, analyzed), page,
+                segment -> searchQuerySegment(segment, analyzed));
+    }
+
+    /**
+     * Returns the IDs of the documents of a segment matching a boolean query, in ascending order.
+     * <p>
+     * The query is planned with the document frequencies of the dictionary,
+     * then only the posting lists of the keywords left in the plan are read.
+     */
+    private List<Integer> searchQuerySegment(SegmentInfo segment, Query query) {
+        Set<String> keywords = new HashSet<>();
+        query.collectKeywords(keywords);
+
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment.name, iiCompressor);
+        try {
+            Map<String, List<Integer>> dictMap = readDictionary(segMgr, keywords);
+            Map<String, DecodedPostingList> postingLists = new HashMap<>();
+            QueryContext context = new QueryContext() {
+                @Override
+                public int numDocs() {
+                    return segment.numDocs;
+                }
+
+                @Override
+                public int docFreq(String keyword) {
+                    List<Integer> dict = dictMap.get(keyword);
+                    return dict == null ? 0 : dict.get(4); // 5th element is the number of Docs
+                }
+
+                @Override
+                public DocIdIterator postings(String keyword) {
+                    return new PostingIterator(postingLists.get(keyword).docIds);
+                }
+
+                @Override
+                public DocIdIterator phrase(List<String> keywords) {
+                    return new PhraseMatcher(keywords, postingLists, positionReader(segMgr, postingLists));
+                }
+            };
+
+            Query plan = query.plan(context);
+            if (plan == null) {
+                return new ArrayList<>();
+            }
+            Set<String> planKeywords = new HashSet<>();
+            plan.collectKeywords(planKeywords);
+            postingLists.putAll(readPostingLists(segMgr, segment, Maps.filterKeys(dictMap, planKeywords::contains)));
+            if (plan.hasPhrase()) {
+                segMgr.readPositionInitiate();
+            }
+
+            List<Integer> docIds = new ArrayList<>();
+            DocIdIterator it = plan.iterator(context);
+            for (int doc = it.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+                if (!segment.deleted.get(doc)) {
+                    docIds.add(doc);
+                }
+            }
+            return docIds;
+        } finally {
+            segMgr.close();
+        }
+    }
 
     /**
      * Iterates through all the documents in all disk segments.
+     * <p>
+     * Deleted documents are still stored until their segment is merged, so they are included.
      */
     public Iterator<Document> documentIterator() {
         Iterator<Document> iterator = new ArrayList<Document>().iterator();
 
-        File[] files = getFiles("DocStore");
-        for (int i = 0; i < files.length; ++i) {
-            DocumentStore mapDBIt = MapdbDocStore.createOrOpenReadOnly(files[i].getPath());
-            iterator = Iterators.concat(iterator, Iterators.transform(mapDBIt.iterator(), entry -> entry.getValue()));
-            mapDBIt.close();
+        List<SegmentInfo> snapshot = acquireSegments();
+        try {
+            for (SegmentInfo segment : snapshot) {
+                DocumentStore mapDBIt = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + segment.name);
+                iterator = Iterators.concat(iterator, Iterators.transform(mapDBIt.iterator(), entry -> entry.getValue()));
+                mapDBIt.close();
+            }
+        } finally {
+            releaseSegments(snapshot);
         }
         return iterator;
     }
@@ -481,6 +1126,69 @@ public class InvertedIndexManager {
      * @param keyword
      */
     public void deleteDocuments(String keyword) {
+        Preconditions.checkNotNull(keyword);
+        List<String> tokens = iiAnalyzer.analyze(keyword);
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        // documents in the in-memory buffer are deleted as well
+        flush();
+        while (!deleteFromSegments(tokens)) {
+            // a segment was merged away in the meantime, its documents are in the merged segment now
+        }
+    }
+
+    /**
+     * Marks the documents containing all the tokens as deleted in every segment, and writes the deleted documents file of the segments.
+     * Nothing is marked if a segment was merged away before the deletion is committed, returns false in that case.
+     */
+    private boolean deleteFromSegments(List<String> tokens) {
+        List<SegmentInfo> snapshot = acquireSegments();
+        try {
+            Map<SegmentInfo, BitSet> matches = new HashMap<>();
+            Map<SegmentInfo, Map<Integer, Set<String>>> matchKeywords = new HashMap<>();
+            for (SegmentInfo segment : snapshot) {
+                List<Integer> docIds = searchSegment(segment, tokens, SearchOperation.AND_SEARCH);
+                BitSet deleted = segment.deleted;
+                docIds.removeIf(deleted::get);
+                if (!docIds.isEmpty()) {
+                    BitSet match = new BitSet();
+                    docIds.forEach(match::set);
+                    matches.put(segment, match);
+                    // the keywords of the documents, so the document frequencies of the index don't count them anymore
+                    matchKeywords.put(segment, readKeywords(segment.name, match));
+                }
+            }
+
+            synchronized (this) {
+                if (!segments.containsAll(matches.keySet())) {
+                    return false;
+                }
+                for (Map.Entry<SegmentInfo, BitSet> match : matches.entrySet()) {
+                    SegmentInfo segment = match.getKey();
+                    // documents deleted by another deletion in the meantime are already left out of the statistics
+                    BitSet newlyDeleted = (BitSet) match.getValue().clone();
+                    newlyDeleted.andNot(segment.deleted);
+                    BitSet deleted = (BitSet) segment.deleted.clone();
+                    deleted.or(newlyDeleted);
+                    writeDeletedDocs(segment.name, deleted);
+                    segment.deleted = deleted;
+
+                    Map<String, Integer> newDocFreqs = countKeywords(matchKeywords.get(segment), newlyDeleted);
+                    Map<String, Integer> deletedDocFreqs = new HashMap<>(segment.deletedDocFreqs);
+                    newDocFreqs.forEach((keyword, docFreq) -> deletedDocFreqs.merge(keyword, docFreq, Integer::sum));
+                    segment.deletedDocFreqs = deletedDocFreqs;
+                    termStatistics.deleteDocuments(newlyDeleted.cardinality(), newDocFreqs);
+                }
+                if (!matches.isEmpty()) {
+                    segmentsChanged();
+                }
+            }
+            return true;
+        } finally {
+            releaseSegments(snapshot);
+        }
     }
 
 
@@ -500,171 +1208,176 @@ public class InvertedIndexManager {
      * @return a iterator of ordered documents matching the query
      */
     public Iterator<Pair<Document, Double>> searchTfIdf(List<String> keywords, Integer topK) {
+        List<Pair<Document, Double>> results = new ArrayList<>();
+        if (topK != null && topK == 0) {
+            Preconditions.checkNotNull(keywords);
+            return results.iterator();
+        }
 
-        // check empty and positional index
-        Preconditions.checkNotNull(keywords);
-        Iterator<Pair<Document, Double>> iterator = new ArrayList<Pair<Document, Double>>().iterator();
+        try (SearchCursor cursor = searchTfIdfPage(keywords, topK == null ? SearchPage.ALL : SearchPage.first(topK))) {
+            List<SearchHit> hits = new ArrayList<>();
+            cursor.forEachRemaining(hits::add);
+            // the documents are read segment by segment, then paired with the hits in ranking order
+            List<Document> documents = cursor.getDocuments(hits);
+            for (int i = 0; i < hits.size(); i++) {
+                results.add(new Pair<>(documents.get(i), hits.get(i).getScore()));
+            }
+        }
+        return results.iterator();
+    }
 
+    /**
+     * Performs ranked search using TF-IDF, returns a page of the hits by descending score.
+     * Documents with the same score are ordered by segment and document ID, so the pages of a query don't overlap.
+     * <p>
+     * Only the top `offset + limit` documents are kept while scoring, or the top `limit` documents after the search-after hit.
+     *
+     * @param keywords, a list of keywords in the query
+     * @param page      the hits to return
+     * @return a cursor over the hits, which must be closed
+     */
+    public SearchCursor searchTfIdfPage(List<String> keywords, SearchPage page) {
 
+        // check empty and positional index
+        Preconditions.checkNotNull(keywords);
         if (keywords.isEmpty()) {
-            return iterator;
+            return emptyCursor();
         }
 
-        Map<String, Double> idf = new HashMap<>();
-
         // do analyzer
         List<String> tokens = iiAnalyzer.analyze(String.join(" ", keywords));
 
-        // retrieve segment files
-        File[] files = getFiles("segment");
-        sort(files);
-
-
-        // ### FIRST PASS: calculate IDF's of the query keywords
-        setIDF(tokens, files, idf);
-
-        // ### SECOND PASS: calculate the score
-        List<ScoreSet> topKDocumentId = calculateScore(tokens, files, idf, topK);
-
-
-        // setup document iterator
-        for (int i = 0; i < topKDocumentId.size(); ++i) {
-            DocumentStore mapDBIt = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + topKDocumentId.get(i).Doc.SegmentID);
-
-            List<Pair<Document, Double>> pairIt = new ArrayList<>();
-
-            pairIt.add(new Pair(mapDBIt.getDocument(topKDocumentId.get(i).Doc.LocalDocID), topKDocumentId.get(i).Score));
-            iterator = Iterators.concat(iterator, pairIt.iterator());
-            mapDBIt.close();
+        // retrieve segments, and the IDF of the tokens over them
+        List<SegmentInfo> snapshot;
+        long generation;
+        Map<String, Double> idf;
+        synchronized (this) {
+            snapshot = acquireSegments();
+            generation = segmentGeneration;
+            idf = termStatistics.idf(tokens);
         }
-        return iterator;
-    }
-
-    public void setIDF(List<String> tokens, File[] files, Map<String, Double> idf) {
-        Set<String> tokenSet = new HashSet<>(tokens);
-        //loop through every segment
-        int numDoc = 0;
-
-        for (int i = 0; i < files.length; ++i) {
-            String fileIdxStr = files[i].getName().substring(8);
-
-            // get/accumulate number of document
-            numDoc += getNumDocuments(Integer.parseInt(fileIdxStr));
-
+        try {
+            // the scores and the order of the segments of an older generation can't be compared with the current ones
+            if (page.searchAfter != null && SearchHit.parseSearchAfter(page.searchAfter).generation != generation) {
+                throw new CursorExpiredException(page.searchAfter);
+            }
+            List<Object> key = Arrays.asList(SearchOperation.TFIDF_SEARCH, tokens, page.numHits(), page.searchAfter);
+            List<SearchHit> hits = queryCache == null ? null : queryCache.get(key, generation);
+            if (hits == null) {
+                // only the documents ranked after the search-after hit are scored
+                ScoreSet after = null;
+                if (page.searchAfter != null) {
+                    SearchHit hit = SearchHit.parseSearchAfter(page.searchAfter);
+                    after = new ScoreSet(hit.getScore(), new DocID(indexOfSegment(snapshot, hit), hit.getDocId()));
+                }
 
-            // get/accumulate document frequency
-            for (String w : tokenSet) {
+                // calculate the score
+                List<ScoreSet> topKDocumentId = calculateScore(tokens, snapshot, idf, page.numHits(), after);
 
-                int docFreq = getDocumentFrequency(Integer.parseInt(fileIdxStr), w);
-                if (!idf.containsKey(w)) idf.put(w, (double) docFreq);
-                else idf.put(w, idf.get(w) + (double) docFreq);
+                hits = new ArrayList<>();
+                for (ScoreSet ss : topKDocumentId) {
+                    hits.add(new SearchHit(snapshot.get(ss.Doc.SegmentID).name, ss.Doc.SegmentID, ss.Doc.LocalDocID, ss.Score, generation));
+                }
+                hits = Collections.unmodifiableList(hits);
+                if (queryCache != null) {
+                    queryCache.put(key, generation, hits);
+                }
             }
+            return new SearchCursor(idxFolder, snapshot, this::releaseSegments, applyPage(hits.iterator(), page));
+        } catch (RuntimeException e) {
+            releaseSegments(snapshot);
+            throw e;
         }
+    }
 
-        // after looping all the segment, count global IDF of each keyword
-        for (Map.Entry<String, Double> entry : idf.entrySet()) {
-            Double v = entry.getValue();
-            entry.setValue(Math.log10(numDoc / v));
-        }
+    public List<ScoreSet> calculateScore(List<String> tokens, List<SegmentInfo> segments, Map<String, Double> idf, Integer topK) {
+        return calculateScore(tokens, segments, idf, topK, null);
     }
 
-    public List<ScoreSet> calculateScore(List<String> tokens, File[] files, Map<String, Double> idf, Integer topK) {
+    /**
+     * Returns the top K documents by descending score, only the documents ranked after `after` (if not null) are ranked.
+     */
+    private List<ScoreSet> calculateScore(List<String> tokens, List<SegmentInfo> segments, Map<String, Double> idf, Integer topK,
+                                          ScoreSet after) {
         //PriorityQueue<ScoreSet> pq = new PriorityQueue<>();
-        Comparator<ScoreSet> comp = Ordering.natural().reverse();
-        MinMaxPriorityQueue<ScoreSet> pq;
-        if (topK == null) {
-            pq = MinMaxPriorityQueue.orderedBy(comp).create();
-        } else if (topK == 0) {
-            pq = MinMaxPriorityQueue.orderedBy(comp).create();
-            return pq.stream().collect(Collectors.toCollection(ArrayList::new));
-        } else {
-            pq = MinMaxPriorityQueue.orderedBy(comp).maximumSize(topK).create();
+        if (topK != null && topK == 0) {
+            return new ArrayList<>();
         }
         // setup tfidf of query
         Map<String, Double> queryTfidf = setTfidfQuery(tokens, idf);
 
+        // every segment keeps its own top K, they are merged into the global top K
+        TopKHeap heap = new TopKHeap(topK);
+        for (TopKHeap segmentHeap : searchSegments(segments.size(),
+                segment -> scoreSegment(segment, segments.get(segment), queryTfidf, idf, topK, after))) {
+            heap.addAll(segmentHeap);
+        }
+        return heap.drainSorted();
+    }
 
-        // loop all the segment file
-        for (int i = 0; i < files.length; ++i) {
-            String fileIdxStr = files[i].getName().substring(8);
-
-            Map<Integer, Double> dotProductAccumulator = new HashMap<>();
-            Map<Integer, Double> vectorLengthAccumulator = new HashMap<>();
-
-            SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, fileIdxStr, iiCompressor);
-            segMgr.readInitiate();
-            Map<String, List<Integer>> dictMap = new TreeMap<>();
-
-            //load all the keywords of the segment
-            while (segMgr.hasKeyWord()) {
-                List<Integer> l1 = new ArrayList<>();
-                String k1 = segMgr.readKeywordAndDict(l1);
-                dictMap.put(k1, l1);
-            }
-
-            // initiate
-            segMgr.readPostingInitiate();
-            if (isPositionalIndex()) {
-                segMgr.readPositionMetaInitiate();
-                segMgr.readPositionInitiate();
-            }
-            segMgr.readTFInitiate();
-
-            // calculate tfidf and accumulate cosine similarity
-            for (Map.Entry<String, Double> entry : queryTfidf.entrySet()) {
-                String w = entry.getKey();
-                // p4 check!!!
-                if (!dictMap.keySet().contains(w)) {
-                    continue;
-                }
-                Map<Integer, List<Integer>> postingList = segMgr.readDocIdList(dictMap.get(w).get(0), dictMap.get(w).get(1), dictMap.get(w).get(2), dictMap.get(w).get(3));
-
-                for (Map.Entry<Integer, List<Integer>> postEntry : postingList.entrySet()) {
-                    // use tf list file
-                    int tf = postEntry.getValue().get(postEntry.getValue().size() - 1);
-                    Double tfidf = tf * idf.get(w);
-
-                    int docId = postEntry.getKey();
+    /**
+     * Returns the top K documents of a segment by cosine similarity with the query.
+     * The posting lists of the query are read once, then every docID range of the segment is scored on its own.
+     */
+    private TopKHeap scoreSegment(int segment, SegmentInfo segmentInfo, Map<String, Double> queryTfidf, Map<String, Double> idf, Integer topK,
+                                  ScoreSet after) {
+        // document IDs and term frequencies of each keyword found in the segment
+        Map<String, int[]> docIdLists = new HashMap<>();
+        Map<String, int[]> tfLists = new HashMap<>();
 
-                    if (!dotProductAccumulator.containsKey(docId)) {
-                        dotProductAccumulator.put(docId, tfidf * queryTfidf.get(w));
-                        vectorLengthAccumulator.put(docId, tfidf * tfidf);
-                    } else {
-                        dotProductAccumulator.put(docId, dotProductAccumulator.get(docId) + tfidf * queryTfidf.get(w));
-                        vectorLengthAccumulator.put(docId, vectorLengthAccumulator.get(docId) + tfidf * tfidf);
-                    }
-                }
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segmentInfo.name, iiCompressor);
+        try {
+            //load the keywords of the query
+            Map<String, List<Integer>> dictMap = readDictionary(segMgr, queryTfidf.keySet());
 
+            for (Map.Entry<String, DecodedPostingList> entry : readPostingLists(segMgr, segmentInfo, dictMap).entrySet()) {
+                docIdLists.put(entry.getKey(), entry.getValue().docIds);
+                tfLists.put(entry.getKey(), entry.getValue().tfs);
             }
+        } finally {
+            segMgr.close();
+        }
 
-            // retrieve the score and put scoreSet object into priority queue
-            int segNumDoc = getNumDocuments(Integer.parseInt(fileIdxStr));
-            for (int j = 0; j < segNumDoc; ++j) {
-                ScoreSet ss;
+        TopKHeap heap = new TopKHeap(topK);
+        for (TopKHeap rangeHeap : searchRanges(segmentInfo.numDocs,
+                (start, end) -> scoreRange(segment, segmentInfo.deleted, docIdLists, tfLists, queryTfidf, idf, topK, after, start, end))) {
+            heap.addAll(rangeHeap);
+        }
+        return heap;
+    }
 
-                if (!dotProductAccumulator.containsKey(j))
-                    continue;
-                if (dotProductAccumulator.get(j) == 0.0 && vectorLengthAccumulator.get(j) == 0.0)
-                    ss = new ScoreSet(0.0, new DocID(Integer.parseInt(fileIdxStr), j));
-                else
-                    ss = new ScoreSet(dotProductAccumulator.get(j) / Math.sqrt(vectorLengthAccumulator.get(j)), new DocID(Integer.parseInt(fileIdxStr), j));
-                if (topK != null) {
-                    if (pq.size() < topK) {
-                        pq.add(ss);
-                    } else {
-                        if (pq.peekLast().compareTo(ss) == -1) {
-                            pq.add(ss);
-                        }
-                    }
-                } else {
-                    pq.add(ss);
-                }
-            }
+    /**
+     * Returns the top K documents from `start` (inclusive) to `end` (exclusive) of a segment.
+     * Once there are K documents, the documents which can't beat the K-th score are skipped without being scored, see `MaxScoreScorer`.
+     */
+    private TopKHeap scoreRange(int segment, BitSet deleted, Map<String, int[]> docIdLists, Map<String, int[]> tfLists,
+                                Map<String, Double> queryTfidf, Map<String, Double> idf, Integer topK, ScoreSet after,
+                                int start, int end) {
+        TopKHeap heap = new TopKHeap(topK);
+
+        // the terms are scored in the order of the posting lists
+        int numTerms = docIdLists.size();
+        int[][] docIds = new int[numTerms][];
+        int[][] tfs = new int[numTerms][];
+        double[] termIdf = new double[numTerms];
+        double[] queryWeights = new double[numTerms];
+        int t = 0;
+        for (Map.Entry<String, int[]> entry : docIdLists.entrySet()) {
+            String w = entry.getKey();
+            docIds[t] = entry.getValue();
+            tfs[t] = tfLists.get(w);
+            termIdf[t] = idf.get(w);
+            queryWeights[t] = queryTfidf.get(w);
+            ++t;
         }
 
-        List<ScoreSet> result = pq.stream().collect(Collectors.toCollection(ArrayList::new));
-        Collections.sort(result, Collections.reverseOrder());
-        return result;
+        // without K, every document is scored
+        new MaxScoreScorer(docIds, tfs, termIdf, queryWeights).score(start, end, deleted, heap::threshold, (doc, score) -> {
+            if (after == null || TopKHeap.compare(score, segment, doc, after.Score, after.Doc.SegmentID, after.Doc.LocalDocID) > 0) {
+                heap.offer(segment, doc, score);
+            }
+        });
+        return heap;
     }
 
 
@@ -691,48 +1404,72 @@ public class InvertedIndexManager {
     /**
      * Returns the total number of documents within the given segment.
      */
-    public int getNumDocuments(int segmentNum) {
-        DocumentStore mapDBGetIdx = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + segmentNum);
-        int sz = (int) mapDBGetIdx.size();
-        mapDBGetIdx.close();
-        return sz;
+    public synchronized int getNumDocuments(int segmentNum) {
+        return segments.get(segmentNum).numDocs;
     }
 
     /**
      * Returns the number of documents containing the token within the given segment.
      * The token should be already analyzed by the analyzer. The analyzer shouldn't be applied again.
      */
-    public int getDocumentFrequency(int segmentNum, String token) {
-        // check whether we should create new dictMap
-        if (segmentNum != rankingSegId) {
-            resetRankingParam(segmentNum);
-        }
+    public synchronized int getDocumentFrequency(int segmentNum, String token) {
+        return segments.get(segmentNum).docFreqs.getOrDefault(token, 0);
+    }
 
-        if (!rankingDictMap.keySet().contains(token)) {
-            return 0;
+    /**
+     * Reads the number of documents containing every keyword from the dictionary of a segment.
+     */
+    private Map<String, Integer> readDocFreqs(String segment) {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment, iiCompressor);
+        try {
+            segMgr.readInitiate();
+            while (segMgr.hasKeyWord()) {
+                List<Integer> dict = new ArrayList<>();
+                String keyword = segMgr.readKeywordAndDict(dict);
+                docFreqs.put(keyword, dict.get(4)); // 5th element is the number of Docs
+            }
+        } finally {
+            segMgr.close();
         }
-        return rankingDictMap.get(token).get(4); // 5th element is the number of Docs
+        return docFreqs;
     }
 
-    public void resetRankingParam(int segmentNum) {
-        rankingSegId = segmentNum;
-        rankingDictMap.clear();
 
-        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, String.valueOf(rankingSegId), iiCompressor);
-        segMgr.readInitiate();
-
-        rankingDictMap = new TreeMap<>();
-
-        //load all the keywords of the segment
-        while (segMgr.hasKeyWord()) {
-            List<Integer> l1 = new ArrayList<>();
-            String k1 = segMgr.readKeywordAndDict(l1);
-            rankingDictMap.put(k1, l1);
+    /**
+     * Returns the keywords of some documents of a segment. The documents are read from the document store
+     * and analyzed again, the analyzer gives back the keywords they were indexed with.
+     */
+    private Map<Integer, Set<String>> readKeywords(String segment, BitSet docs) {
+        Map<Integer, Set<String>> keywords = new HashMap<>();
+        if (docs.isEmpty()) {
+            return keywords;
         }
-
-        segMgr.close();
+        int[] sortedIds = docs.stream().toArray();
+        DocumentStore docStore = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + segment);
+        try {
+            Document[] documents = docStore.getDocuments(sortedIds);
+            for (int i = 0; i < sortedIds.length; i++) {
+                keywords.put(sortedIds[i], new HashSet<>(iiAnalyzer.analyze(documents[i].getText())));
+            }
+        } finally {
+            docStore.close();
+        }
+        return keywords;
     }
 
+    /**
+     * Returns the number of documents of `docs` containing each keyword.
+     */
+    private static Map<String, Integer> countKeywords(Map<Integer, Set<String>> keywords, BitSet docs) {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+            for (String keyword : keywords.get(doc)) {
+                docFreqs.merge(keyword, 1, Integer::sum);
+            }
+        }
+        return docFreqs;
+    }
 
     /**
      * Gets the total number of segments in the inverted index.
@@ -742,8 +1479,8 @@ public class InvertedIndexManager {
      * <p>
      * Q: used in disk or in-memory
      */
-    public int getNumSegments() {
-        return getFiles("segment").length;
+    public synchronized int getNumSegments() {
+        return segments.size();
     }
 
     /**
@@ -755,14 +1492,18 @@ public class InvertedIndexManager {
      * Q: used in disk or in-memory
      */
     public InvertedIndexSegmentForTest getIndexSegment(int segmentNum) {
-
-        if (!Files.exists(Paths.get(idxFolder + "segment_" + segmentNum))) {
-            return null;
+        List<SegmentInfo> snapshot = acquireSegments();
+        try {
+            if (segmentNum < 0 || segmentNum >= snapshot.size()) {
+                return null;
+            }
+            Map<String, List<Integer>> invertedLists = new TreeMap<>();
+            Map<Integer, Document> documents = new HashMap<>();
+            getSegment(snapshot.get(segmentNum).name, false, invertedLists, documents, null);
+            return new InvertedIndexSegmentForTest(invertedLists, documents);
+        } finally {
+            releaseSegments(snapshot);
         }
-        Map<String, List<Integer>> invertedLists = new TreeMap<>();
-        Map<Integer, Document> documents = new HashMap<>();
-        getSegment(segmentNum, false, invertedLists, documents, null);
-        return new InvertedIndexSegmentForTest(invertedLists, documents);
     }
 
     /**
@@ -775,28 +1516,34 @@ public class InvertedIndexManager {
      * @return in-memory data structure with all contents in the index segment, null if segmentNum don't exist.
      */
     public PositionalIndexSegmentForTest getIndexSegmentPositional(int segmentNum) {
-        if (!Files.exists(Paths.get(idxFolder + "segment_" + segmentNum))) {
-            return null;
-        }
-        if (!Files.exists(Paths.get(idxFolder + "position_" + segmentNum))) {
-            throw new UnsupportedOperationException();
+        List<SegmentInfo> snapshot = acquireSegments();
+        try {
+            if (segmentNum < 0 || segmentNum >= snapshot.size()) {
+                return null;
+            }
+            String segment = snapshot.get(segmentNum).name;
+            if (!Files.exists(Paths.get(idxFolder + "position_" + segment))) {
+                throw new UnsupportedOperationException();
+            }
+            Map<String, List<Integer>> invertedLists = new TreeMap<>();
+            Map<Integer, Document> documents = new HashMap<>();
+            Table<String, Integer, List<Integer>> positions = TreeBasedTable.create();
+            getSegment(segment, true, invertedLists, documents, positions);
+            return new PositionalIndexSegmentForTest(invertedLists, documents, positions);
+        } finally {
+            releaseSegments(snapshot);
         }
-        Map<String, List<Integer>> invertedLists = new TreeMap<>();
-        Map<Integer, Document> documents = new HashMap<>();
-        Table<String, Integer, List<Integer>> positions = TreeBasedTable.create();
-        getSegment(segmentNum, true, invertedLists, documents, positions);
-        return new PositionalIndexSegmentForTest(invertedLists, documents, positions);
     }
 
     /**
      * ================HELPER FUNCTIONS==================
      */
 
-    private void getSegment(int segmentNum, boolean isPositional,
+    private void getSegment(String segment, boolean isPositional,
                             Map<String, List<Integer>> invertedLists,
                             Map<Integer, Document> documents, Table<String, Integer, List<Integer>> positions) {
 
-        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, Integer.toString(segmentNum), iiCompressor);
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment, iiCompressor);
         segMgr.readInitiate();
         // create map(String, List<Integer>) to store keyword and dictionary pair, the list contain 4 attributes
         Map<String, List<Integer>> dictMap = new TreeMap<>();
@@ -831,7 +1578,7 @@ public class InvertedIndexManager {
             }
         }
 
-        DocumentStore mapDBGetIdx = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + segmentNum);
+        DocumentStore mapDBGetIdx = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + segment);
 
         Iterator<Map.Entry<Integer, Document>> it = mapDBGetIdx.iterator();
         while (it.hasNext()) {
@@ -842,381 +1589,537 @@ public class InvertedIndexManager {
         mapDBGetIdx.close();
     }
 
-    private void merge(int id1, int id2) {
-        // get segment id and docId size
-        int sz1;
-
-        DocumentStore mapDB1 = MapdbDocStore.createOrOpen(idxFolder + "DocStore_" + id1);
-        sz1 = (int) mapDB1.size();
-
-
-        DocumentStore mapDB2 = MapdbDocStore.createOrOpen(idxFolder + "DocStore_" + id2);
-
-        DocumentStore mapdbmerged = MapdbDocStore.createOrOpen(idxFolder + "DocStore_merged");
-        /*
-         * create map to store keyword and dictionary pair, the list either contain 4 attributes or 8 attributes
-         * Specification of value at Map : segId(either 0,1) | page | offset | length  , stored at List of integer
-         * If the keyword exist in both segments, the list would have two dictionary (8 attribute)
-         */
-        Map<String, List<Integer>> mergedMap = new TreeMap<>();
-
-        SegmentInDiskManager segMgr1 = new SegmentInDiskManager(idxFolder, Integer.toString(id1), iiCompressor);
-        SegmentInDiskManager segMgr2 = new SegmentInDiskManager(idxFolder, Integer.toString(id2), iiCompressor);
-        segMgr1.readInitiate();
-        segMgr2.readInitiate();
-
-
-        // read to fill the map
-        int totalLengthKeyword = fillTheMap(mergedMap, segMgr1, segMgr2);
+    /**
+     * File prefixes of all the files that belong to a segment
+     */
+    static final String[] SEGMENT_FILE_PREFIXES = {"posting_", "position_", "meta_", "tf_", "DocStore_", "segment_", "deleted_"};
 
-        SegmentInDiskManager segMgrMerge = new SegmentInDiskManager(idxFolder, "mergedSegment", iiCompressor);
+    private void deleteSegmentFiles(String seg) {
+        for (String prefix : SEGMENT_FILE_PREFIXES) {
+            new File(idxFolder + prefix + seg).delete();
+        }
+        if (postingCache != null) {
+            postingCache.invalidateSegment(seg);
+        }
+    }
 
-        // insert to new segment
-        insertAtMergedSegment(mergedMap, segMgr1, segMgr2, segMgrMerge, totalLengthKeyword, sz1);
+    /**
+     * Takes a snapshot of the segments of the index, their files are kept until the snapshot is released.
+     */
+    private synchronized List<SegmentInfo> acquireSegments() {
+        for (SegmentInfo segment : segments) {
+            ++segment.refCount;
+        }
+        return new ArrayList<>(segments);
+    }
 
+    /**
+     * Moves the segments to a new generation, which invalidates the cached query results
+     * (called with the lock of the index held).
+     */
+    private void segmentsChanged() {
+        ++segmentGeneration;
+        if (queryCache != null) {
+            queryCache.invalidate(segmentGeneration);
+        }
+    }
 
-        //write both to a new docstore after deleting the deleted docs then rename docstore
+    private synchronized void releaseSegments(List<SegmentInfo> snapshot) {
+        for (SegmentInfo segment : snapshot) {
+            if (--segment.refCount == 0) {
+                deleteSegmentFiles(segment.name);
+            }
+        }
+    }
 
+    /**
+     * The file listing the committed segments in order, one `name numDocs` line per segment,
+     * preceded by the length of the text in bytes (the last page is padded)
+     */
+    private static final String SEGMENTS_FILE = "segments";
 
-        Iterator<Integer> docId1 = mapDB1.keyIterator();
-        int docID = 0;
-        while (docId1.hasNext()) {
-            docID = docId1.next();
-            mapdbmerged.addDocument(docID, mapDB1.getDocument(docID));
+    /**
+     * Replaces the segments file (called with the lock of the index held),
+     * so the index is reopened with exactly the segments committed so far.
+     */
+    private void writeSegmentsFile() {
+        StringBuilder lines = new StringBuilder();
+        for (SegmentInfo segment : segments) {
+            lines.append(segment.name).append(' ').append(segment.numDocs).append('\n');
         }
-        Iterator<Integer> docId2 = mapDB2.keyIterator();
-        while (docId2.hasNext()) {
-            docID = docId2.next();
-            mapdbmerged.addDocument(docID + sz1, mapDB2.getDocument(docID));
+        byte[] text = lines.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(Integer.BYTES + text.length);
+        byteBuffer.putInt(text.length);
+        byteBuffer.put(text);
+        try {
+            Path tmp = Paths.get(idxFolder + SEGMENTS_FILE + ".tmp");
+            Files.deleteIfExists(tmp);
+            PageFileChannel pfc = PageFileChannel.createOrOpen(tmp);
+            pfc.appendAllBytes(byteBuffer);
+            pfc.close();
+            Files.move(tmp, Paths.get(idxFolder + SEGMENTS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        mapdbmerged.close();
-        mapDB1.close();
-        mapDB2.close();
-        // close
-        segMgr1.close();
-        segMgr2.close();
-        segMgrMerge.close();
-
-        deleteAndRename(id1, id2);
     }
 
-    // Specification of value at Map : segId(either 0,1) | page | offset | length  , stored at List of integer
-    private int fillTheMap(Map<String, List<Integer>> mergedMap, SegmentInDiskManager segMgr1, SegmentInDiskManager segMgr2) {
-        int totalLengthKeyword = 0;
-
-        String k1 = "", k2 = "";
-        boolean has1 = false, has2 = false;
-        List<Integer> l1 = new ArrayList<>(), l2 = new ArrayList<>();
-
-        while (!k1.isEmpty() || !k2.isEmpty() || segMgr1.hasKeyWord() || segMgr2.hasKeyWord()) {
-            if (!has1 && segMgr1.hasKeyWord()) {
-                k1 = segMgr1.readKeywordAndDict(l1);
-                l1.add(0, 0);
+    /**
+     * Reads the segments of an existing index from the segments file.
+     * An index without a segments file uses numbered segment files, taken in ascending order.
+     */
+    private List<SegmentInfo> loadSegments() {
+        List<SegmentInfo> loaded = new ArrayList<>();
+        Path segmentsFile = Paths.get(idxFolder + SEGMENTS_FILE);
+        if (Files.exists(segmentsFile)) {
+            PageFileChannel pfc = PageFileChannel.createOrOpen(segmentsFile);
+            ByteBuffer byteBuffer = pfc.readAllPages();
+            pfc.close();
+            byteBuffer.rewind();
+            byte[] text = new byte[byteBuffer.getInt()];
+            byteBuffer.get(text);
+            for (String line : new String(text, StandardCharsets.UTF_8).split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(" ");
+                loaded.add(new SegmentInfo(fields[0], Integer.parseInt(fields[1]), readDeletedDocs(fields[0]), readDocFreqs(fields[0])));
             }
-            if (!has2 && segMgr2.hasKeyWord()) {
+            return loaded;
+        }
 
-                k2 = segMgr2.readKeywordAndDict(l2);
-                l2.add(0, 1);
+        List<Integer> numbers = new ArrayList<>();
+        for (File f : getFiles("segment_")) {
+            String suffix = f.getName().substring("segment_".length());
+            if (isNumber(suffix)) {
+                numbers.add(Integer.parseInt(suffix));
             }
+        }
+        Collections.sort(numbers);
+        for (int number : numbers) {
+            DocumentStore docStore = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + number);
+            loaded.add(new SegmentInfo(Integer.toString(number), (int) docStore.size(), readDeletedDocs(Integer.toString(number)),
+                    readDocFreqs(Integer.toString(number))));
+            docStore.close();
+        }
+        return loaded;
+    }
 
-            int cmp = k1.compareTo(k2);
-            if (cmp == 0) {
-                totalLengthKeyword += k1.getBytes().length;
-                l1.addAll(l2);
-                mergedMap.put(k1, new ArrayList<>(l1));
-                l1.clear();
-                l2.clear();
-                has1 = false;
-                has2 = false;
-                k1 = "";
-                k2 = "";
-            } else if (k2.isEmpty() || (cmp < 0 && !k1.isEmpty())) {
-                totalLengthKeyword += k1.getBytes().length;
-                mergedMap.put(k1, new ArrayList<>(l1));
-                l1.clear();
-                has1 = false;
-                has2 = true;
-                k1 = "";
-            } else {
-                totalLengthKeyword += k2.getBytes().length;
+    /**
+     * Replaces the deleted documents file of a segment: the length of the bit set followed by the bit set.
+     * Only this small file is written on deletion, the segment itself isn't changed until it's merged.
+     */
+    private void writeDeletedDocs(String segment, BitSet deleted) {
+        byte[] bits = deleted.toByteArray();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(Integer.BYTES + bits.length);
+        byteBuffer.putInt(bits.length);
+        byteBuffer.put(bits);
+        try {
+            Path tmp = Paths.get(idxFolder + "deleted_" + segment + ".tmp");
+            Files.deleteIfExists(tmp);
+            PageFileChannel pfc = PageFileChannel.createOrOpen(tmp);
+            pfc.appendAllBytes(byteBuffer);
+            pfc.close();
+            Files.move(tmp, Paths.get(idxFolder + "deleted_" + segment), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private BitSet readDeletedDocs(String segment) {
+        Path path = Paths.get(idxFolder + "deleted_" + segment);
+        if (!Files.exists(path)) {
+            return new BitSet();
+        }
+        PageFileChannel pfc = PageFileChannel.createOrOpen(path);
+        ByteBuffer byteBuffer = pfc.readAllPages();
+        pfc.close();
+        byteBuffer.rewind();
+        byte[] bits = new byte[byteBuffer.getInt()];
+        byteBuffer.get(bits);
+        return BitSet.valueOf(bits);
+    }
 
-                mergedMap.put(k2, new ArrayList<>(l2));
-                l2.clear();
-                has1 = true;
-                has2 = false;
-                k2 = "";
+    /**
+     * Returns a segment name greater than the name of any segment file in the folder, so no file is overwritten
+     */
+    private int nextGeneration() {
+        int next = 0;
+        for (String prefix : SEGMENT_FILE_PREFIXES) {
+            for (File f : getFiles(prefix)) {
+                String suffix = f.getName().substring(prefix.length());
+                if (isNumber(suffix)) {
+                    next = Math.max(next, Integer.parseInt(suffix) + 1);
+                }
             }
         }
+        return next;
+    }
 
-        return totalLengthKeyword;
+    private static boolean isNumber(String str) {
+        return !str.isEmpty() && str.length() < 10 && str.chars().allMatch(Character::isDigit);
     }
 
-    private void insertAtMergedSegment(Map<String, List<Integer>> mergedMap, SegmentInDiskManager segMgr1, SegmentInDiskManager segMgr2, SegmentInDiskManager segMgrMerge, int totalLengthKeyword, int sz1) {
-        // allocate dictionary bytebuffer
-        segMgrMerge.allocateByteBuffer(totalLengthKeyword, mergedMap.size());
+    private String newSegmentName() {
+        return Integer.toString(nextGeneration.getAndIncrement());
+    }
 
-        // allocate the position on start point of keyword
-        segMgrMerge.allocateKeywordStart(totalLengthKeyword);
+    // called with the lock of freeBuffers held
+    private SegmentBuffer newBuffer() {
+        return new SegmentBuffer(newSegmentName());
+    }
 
-        // initiate for reading posting list
-        segMgr1.readPostingInitiate();
-        segMgr2.readPostingInitiate();
+    /**
+     * The buffer is full when either the document count cap or the RAM budget is reached.
+     */
+    private boolean isBufferFull(SegmentBuffer buffer) {
+        if (DEFAULT_FLUSH_THRESHOLD > 0 && buffer.documentCounter >= DEFAULT_FLUSH_THRESHOLD) {
+            return true;
+        }
+        return DEFAULT_RAM_BUFFER_SIZE > 0 && buffer.ramBytesUsed >= DEFAULT_RAM_BUFFER_SIZE;
+    }
 
-        // p4
-        segMgr1.readTFInitiate();
-        segMgr2.readTFInitiate();
+    private File[] getFiles(String fileName) {
+        File dir = new File(idxFolder);
+        File[] files = dir.listFiles((d, name) -> name.startsWith(fileName));
+        return files;
 
-        if (isPositionalIndex()) {
-            segMgr1.readPositionInitiate();
-            segMgr2.readPositionInitiate();
-            segMgr1.readPositionMetaInitiate();
-            segMgr2.readPositionMetaInitiate();
-        }
+    }
 
-        int[] lst1Sz = new int[1];
-        for (Map.Entry<String, List<Integer>> entry : mergedMap.entrySet()) {
+    /**
+     * Runs a search on every segment, concurrently on the search threads if there are any.
+     * The results are returned in segment order, once all the segments are searched.
+     *
+     * @param numSegments number of segments of the snapshot being searched
+     * @param search      searches the n-th segment
+     */
+    private <T> List<T> searchSegments(int numSegments, IntFunction<T> search) {
+        return runSearchTasks(numSegments, search);
+    }
 
-            // extract docIdList
-            Map<Integer, List<Integer>> docIdList = extractDocList(lst1Sz, entry.getValue(), segMgr1, segMgr2, sz1);
+    /**
+     * Splits the document IDs of a segment into ranges and runs a search on every range, concurrently on the search threads.
+     * The results are returned in range order, a segment too small to be split is searched as a single range.
+     *
+     * @param numDocs number of documents of the segment
+     * @param search  searches the documents from the first argument (inclusive) to the second one (exclusive)
+     */
+    private <T> List<T> searchRanges(int numDocs, BiFunction<Integer, Integer, T> search) {
+        int numRanges = 1;
+        if (numSearchThreads > 1 && DEFAULT_SEARCH_RANGE_DOCS > 0) {
+            numRanges = Math.max(1, Math.min(numSearchThreads, numDocs / DEFAULT_SEARCH_RANGE_DOCS));
+        }
+        if (numRanges == 1) {
+            return Collections.singletonList(search.apply(0, numDocs));
+        }
+        int rangeDocs = (numDocs + numRanges - 1) / numRanges;
+        return runSearchTasks(numRanges, range -> search.apply(range * rangeDocs, Math.min(numDocs, (range + 1) * rangeDocs)));
+    }
 
-            byte[] encodedPostingList;
-            if (isPositionalIndex()) {
-                encodedPostingList = iiCompressor.encode(docIdList.keySet().stream().collect(Collectors.toCollection(ArrayList::new)));
-            } else {
-                encodedPostingList = new NaiveCompressor().encode(docIdList.keySet().stream().collect(Collectors.toCollection(ArrayList::new)));
+    /**
+     * Runs the tasks on the search threads and returns their results in order.
+     * A task may run tasks of its own, the search threads are a fork/join pool so a thread waiting for them helps running them.
+     */
+    private <T> List<T> runSearchTasks(int numTasks, IntFunction<T> task) {
+        List<T> results = new ArrayList<>();
+        if (numSearchThreads <= 0 || numTasks <= 1) {
+            for (int n = 0; n < numTasks; n++) {
+                results.add(task.apply(n));
             }
-            // insert segment
-            segMgrMerge.insertKeyWord(entry.getKey());
-            int docIdLength = encodedPostingList.length;
-
-            segMgrMerge.insertMetaDataSlot(entry.getKey().getBytes().length, docIdLength, docIdList.size());
+            return results;
+        }
 
-            segMgrMerge.insertPostingList(encodedPostingList);
+        ForkJoinPool executor = getSearchExecutor();
+        List<Future<T>> futures = new ArrayList<>();
+        for (int n = 0; n < numTasks; n++) {
+            int i = n;
+            futures.add(executor.submit(() -> task.apply(i)));
+        }
 
-            // p4
-            int counter = 0;
-            for (Map.Entry<Integer, List<Integer>> docId : docIdList.entrySet()) {
-                // p4 insert term frequency list
-                int sz = docId.getValue().size();
-                segMgrMerge.insertTFList(docId.getValue().get(sz - 1));
-                if (isPositionalIndex()) {
-                    List<Integer> positionalList;
-                    if (counter < lst1Sz[0]) {
-                        positionalList = segMgr1.readPosList(docId.getValue().get(0),
-                                docId.getValue().get(1), docId.getValue().get(2));
-                    } else {
-                        positionalList = segMgr2.readPosList(docId.getValue().get(0),
-                                docId.getValue().get(1), docId.getValue().get(2));
+        // wait for every task even if one fails, the snapshot is released after this returns
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
                     }
-
-                    byte[] encodedPositionList;
-                    encodedPositionList = iiCompressor.encode(positionalList);
-                    segMgrMerge.insertPositionList(encodedPositionList, docId.getValue().size());
+                    break;
                 }
-                counter++;
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            Throwables.throwIfUnchecked(failure);
+            throw new RuntimeException(failure);
+        }
+        return results;
+    }
 
-        segMgrMerge.allocateNumberOfKeyWord(mergedMap.size());
-
-
-        // append all dictionary byte to new file
-        segMgrMerge.appendAllbyte();
-
-        // append last page
-        segMgrMerge.appendPage();
+    private synchronized ForkJoinPool getSearchExecutor() {
+        if (searchExecutor == null) {
+            // fork/join worker threads are daemon threads
+            searchExecutor = new ForkJoinPool(numSearchThreads, pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("searcher " + idxFolder + " " + t.getPoolIndex());
+                return t;
+            }, null, false);
+        }
+        return searchExecutor;
+    }
 
+    private SearchCursor searchKewords(List<String> keywords, Enum searchOperation, SearchPage page) {
+        return openCursor(Arrays.asList(searchOperation, keywords), page, segment -> {
+            List<Integer> docIds = searchSegment(segment, keywords, searchOperation);
+            docIds.removeIf(segment.deleted::get);
+            return docIds;
+        });
     }
 
     /**
-     * Return list of document IDs along with their postingList location
+     * Opens a cursor over the hits of a boolean or phrase query, `search` returns the matching documents of a segment.
+     * <p>
+     * The segments are searched when the cursor reaches them, one at a time, or as many as the search threads at a time.
+     * A search-after page starts from the segment of the search-after hit.
+     * <p>
+     * With a query result cache, the hits cached under `key` are used instead.
+     * Otherwise the hits are cached once the cursor returns the last of them (unless the page starts after a search-after hit),
+     * a page which stops before the last hit doesn't search the remaining segments just to fill the cache.
      */
-    private Map<Integer, List<Integer>> extractDocList(int[] list1Sz, List<Integer> v, SegmentInDiskManager segMgr1, SegmentInDiskManager segMgr2, int sz1) {
-        Map<Integer, List<Integer>> docIdList1 = new TreeMap<>(), docIdList2 = new TreeMap<>();
-        // the keyword exist in both segments
-        if (v.size() == 12) {
-            docIdList1 = segMgr1.readDocIdList(v.get(1), v.get(2), v.get(3), v.get(4));
-            //docIdList2 = segMgr2.readDocIdList(v.get(6), v.get(7), v.get(8), v.get(9));
-            docIdList2 = segMgr2.readDocIdList(v.get(7), v.get(8), v.get(9), v.get(10));
-
-        } else {
-            // exist in either  1st/2nd segment
-            if (v.get(0) == 0) {
-                docIdList1 = segMgr1.readDocIdList(v.get(1), v.get(2), v.get(3), v.get(4));
-            } else {
-                docIdList2 = segMgr2.readDocIdList(v.get(1), v.get(2), v.get(3), v.get(4));
-            }
+    private SearchCursor openCursor(List<Object> key, SearchPage page, Function<SegmentInfo, List<Integer>> search) {
+        List<SegmentInfo> snapshot;
+        long generation;
+        synchronized (this) {
+            snapshot = acquireSegments();
+            generation = segmentGeneration;
         }
+        try {
+            int firstSegment = 0;
+            int afterDocId = -1;
+            if (page.searchAfter != null) {
+                SearchHit hit = SearchHit.parseSearchAfter(page.searchAfter);
+                firstSegment = indexOfSegment(snapshot, hit);
+                afterDocId = hit.getDocId();
+            }
+            int first = firstSegment;
+            int after = afterDocId;
+
+            List<SearchHit> cached = queryCache == null ? null : queryCache.get(key, generation);
+            if (cached != null) {
+                Iterator<SearchHit> hits = Iterators.filter(cached.iterator(),
+                        hit -> hit.getSegment() > first || (hit.getSegment() == first && hit.getDocId() > after));
+                return new SearchCursor(idxFolder, snapshot, this::releaseSegments, applyPage(hits, page));
+            }
 
-        list1Sz[0] = docIdList1.keySet().size();
-        // convert docId in segment 2
-        for (Map.Entry<Integer, List<Integer>> entry : docIdList2.entrySet()) {
-            docIdList1.put(entry.getKey() + sz1, entry.getValue());
+            int batchSize = Math.max(1, numSearchThreads);
+            List<Integer> batches = new ArrayList<>();
+            for (int start = firstSegment; start < snapshot.size(); start += batchSize) {
+                batches.add(start);
+            }
+            Iterator<SearchHit> hits = Iterators.concat(Iterators.transform(batches.iterator(), start -> {
+                int end = Math.min(snapshot.size(), start + batchSize);
+                List<List<Integer>> results = searchSegments(end - start, i -> search.apply(snapshot.get(start + i)));
+                List<SearchHit> batch = new ArrayList<>();
+                for (int i = 0; i < results.size(); i++) {
+                    int segment = start + i;
+                    for (int docId : results.get(i)) {
+                        if (segment != first || docId > after) {
+                            batch.add(new SearchHit(snapshot.get(segment).name, segment, docId, 0, generation));
+                        }
+                    }
+                }
+                return batch.iterator();
+            }));
+            if (queryCache != null && page.searchAfter == null) {
+                hits = cacheWhenExhausted(hits, all -> queryCache.put(key, generation, all));
+            }
+            return new SearchCursor(idxFolder, snapshot, this::releaseSegments, applyPage(hits, page));
+        } catch (RuntimeException e) {
+            releaseSegments(snapshot);
+            throw e;
         }
-
-        // concat docId2 to docId1
-        return docIdList1;
     }
 
-    private void deleteAndRename(int id1, int id2) {
-        // delete segment
-        File f1, f2;
-        f1 = new File(idxFolder + "segment_" + id1);
-        f2 = new File(idxFolder + "segment_" + id2);
-        f1.delete();
-        f2.delete();
-
-        f1 = new File(idxFolder + "posting_" + id1);
-        f2 = new File(idxFolder + "posting_" + id2);
-        f1.delete();
-        f2.delete();
-
-        f1 = new File(idxFolder + "position_" + id1);
-        f2 = new File(idxFolder + "position_" + id2);
-        f1.delete();
-        f2.delete();
-
-        f1 = new File(idxFolder + "meta_" + id1);
-        f2 = new File(idxFolder + "meta_" + id2);
-        f1.delete();
-        f2.delete();
-
-
-        f1 = new File(idxFolder + "tf_" + id1);
-        f2 = new File(idxFolder + "tf_" + id2);
-        f1.delete();
-        f2.delete();
-
-        // rename segment
-        f1 = new File(idxFolder + "segment_mergedSegment");
-        f2 = new File(idxFolder + "segment_" + id1 / 2);
-        boolean success = f1.renameTo(f2);
-
-        if (!success) throw new UnsupportedOperationException("rename segment fail");
-
-        f1 = new File(idxFolder + "posting_mergedSegment");
-        f2 = new File(idxFolder + "posting_" + id1 / 2);
-        success = f1.renameTo(f2);
-
-        if (!success) throw new UnsupportedOperationException("rename segment fail");
-
-        f1 = new File(idxFolder + "position_mergedSegment");
-        f2 = new File(idxFolder + "position_" + id1 / 2);
-        f1.renameTo(f2);
-
-        f1 = new File(idxFolder + "meta_mergedSegment");
-        f2 = new File(idxFolder + "meta_" + id1 / 2);
-        success = f1.renameTo(f2);
-
-        f1 = new File(idxFolder + "tf_mergedSegment");
-        f2 = new File(idxFolder + "tf_" + id1 / 2);
-        success = f1.renameTo(f2);
-
-        // delete 2nd document store
-        f2 = new File(idxFolder + "DocStore_" + id2);
-        f2.delete();
-
-        //delete 1st document store
-        f1 = new File(idxFolder + "DocStore_" + id1);
-        f1.delete();
+    /**
+     * Returns the hits, passing all of them to `put` as soon as the last one is returned.
+     * The hits are probed right after each hit, so a page ending exactly with the last hit caches the result too.
+     */
+    static Iterator<SearchHit> cacheWhenExhausted(Iterator<SearchHit> hits, Consumer<List<SearchHit>> put) {
+        List<SearchHit> consumed = new ArrayList<>();
+        return new AbstractIterator<SearchHit>() {
+            @Override
+            protected SearchHit computeNext() {
+                if (!hits.hasNext()) {
+                    if (consumed.isEmpty()) {
+                        // no hit at all
+                        put.accept(Collections.emptyList());
+                    }
+                    return endOfData();
+                }
+                SearchHit hit = hits.next();
+                consumed.add(hit);
+                if (!hits.hasNext()) {
+                    put.accept(Collections.unmodifiableList(consumed));
+                }
+                return hit;
+            }
+        };
+    }
 
+    /**
+     * Skips the first `offset` hits and stops after `limit` hits.
+     */
+    private static Iterator<SearchHit> applyPage(Iterator<SearchHit> hits, SearchPage page) {
+        Iterators.advance(hits, page.offset);
+        return Iterators.limit(hits, page.limit);
+    }
 
-        // rename merged document store
-        f1 = new File(idxFolder + "DocStore_merged");
-        f2 = new File(idxFolder + "DocStore_" + id1 / 2);
-        success = f1.renameTo(f2);
+    private SearchCursor emptyCursor() {
+        return new SearchCursor(idxFolder, new ArrayList<>(), snapshot -> {
+        }, Collections.emptyIterator());
+    }
 
-        if (!success) throw new UnsupportedOperationException("rename docstore fail");
+    /**
+     * Returns the position of the segment of a search-after hit in the snapshot,
+     * throws CursorExpiredException if it's not there (i.e. the segment was merged since).
+     */
+    private static int indexOfSegment(List<SegmentInfo> snapshot, SearchHit hit) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i).name.equals(hit.segmentName)) {
+                return i;
+            }
+        }
+        throw new CursorExpiredException(hit.getSearchAfter());
     }
 
-    private void reset() {
-        mapDB.close();
-        ++NUM_SEQ;
-        keyWordMap.clear();
-        document_Counter = 0;
-        totalLengthKeyword = 0;
+    /**
+     * Reads the documents of all the hits of the cursor in a batch per segment, and closes it.
+     */
+    private static Iterator<Document> fetchDocuments(SearchCursor cursor) {
+        try (SearchCursor c = cursor) {
+            List<SearchHit> hits = new ArrayList<>();
+            c.forEachRemaining(hits::add);
+            return new ArrayList<>(c.getDocuments(hits)).iterator();
+        }
     }
 
-    private File[] getFiles(String fileName) {
-        File dir = new File(idxFolder);
-        File[] files = dir.listFiles((d, name) -> name.startsWith(fileName));
-        return files;
+    /**
+     * Returns the IDs of the documents of a segment containing all (AND) or any (OR) of the keywords, in ascending order.
+     * <p>
+     * The dictionary is read once for all the keywords, and only the posting lists of the keywords are read
+     * (none at all for an AND query with a keyword missing from the segment).
+     * The posting lists are then merged document at a time by a `ConjunctionIterator` or a `DisjunctionIterator`,
+     * on every docID range of the segment.
+     */
+    private List<Integer> searchSegment(SegmentInfo segment, List<String> keywords, Enum searchOperation) {
+        List<int[]> postingLists = new ArrayList<>();
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment.name, iiCompressor);
+        try {
+            Map<String, List<Integer>> dictMap = readDictionary(segMgr, keywords);
+            if (dictMap.isEmpty() || (searchOperation == SearchOperation.AND_SEARCH && !dictMap.keySet().containsAll(keywords))) {
+                return new ArrayList<>();
+            }
 
-    }
+            for (DecodedPostingList postingList : readPostingLists(segMgr, segment, dictMap).values()) {
+                postingLists.add(postingList.docIds);
+            }
+        } finally {
+            segMgr.close();
+        }
 
-    private Iterator<Document> searchKewords(List<String> keywords, Enum searchOperation) {
-        Iterator<Document> iterator = new ArrayList<Document>().iterator();
-        File[] files = getFiles("segment");
-        sort(files);
-        for (int i = 0; i < files.length; ++i) {
-            Set<Integer> postingListset = new TreeSet<>();
-            for (int j = 0; j < keywords.size(); j++) {
-                Map<Integer, List<Integer>> postingList = searchSegment(files[i].getName().substring(8), keywords.get(j));//.keySet().stream().collect(Collectors.toCollection(ArrayList::new));
-                if (searchOperation == SearchOperation.AND_SEARCH && j > 0) {
-                    postingListset.retainAll(postingList.keySet());
-                } else {
-                    postingListset.addAll(postingList.keySet());
-                }
+        List<Integer> docIds = new ArrayList<>();
+        for (List<Integer> range : searchRanges(segment.numDocs, (start, end) -> {
+            List<DocIdIterator> iterators = new ArrayList<>();
+            for (int[] postingList : postingLists) {
+                iterators.add(new PostingIterator(postingList));
             }
-            if (postingListset.size() >= 1) {
-                Collections.sort(Lists.newArrayList(postingListset));
-                DocumentStore mapDBSearch = MapdbDocStore.createOrOpenReadOnly(idxFolder + "DocStore_" + i);
-                iterator = Iterators.concat(iterator, Iterators.transform(postingListset.iterator(), entry -> mapDBSearch.getDocument(entry)));
+            DocIdIterator it = searchOperation == SearchOperation.AND_SEARCH
+                    ? new ConjunctionIterator(iterators) : new DisjunctionIterator(iterators);
+            // galloping to the start of the range
+            List<Integer> rangeDocIds = new ArrayList<>();
+            for (int doc = it.advance(start); doc < end; doc = it.nextDoc()) {
+                rangeDocIds.add(doc);
             }
+            return rangeDocIds;
+        })) {
+            docIds.addAll(range);
         }
-        return iterator;
+        return docIds;
     }
 
-    private Map<Integer, List<Integer>> searchSegment(String segment, String keyword) {
-        Map<Integer, List<Integer>> postingList = new TreeMap<>();
-        SegmentInDiskManager segMgr = new SegmentInDiskManager(idxFolder, segment, iiCompressor);
-        segMgr.readInitiate();
+    /**
+     * Reads the dictionary entries of the keywords found in a segment.
+     * The dictionary is sorted, so it's only read up to the greatest keyword.
+     */
+    private Map<String, List<Integer>> readDictionary(SegmentInDiskManager segMgr, Collection<String> keywords) {
+        TreeSet<String> remaining = new TreeSet<>(keywords);
         Map<String, List<Integer>> dictMap = new TreeMap<>();
-        while (segMgr.hasKeyWord()) {
-            List<Integer> l1 = new ArrayList<>();
-            String k1 = segMgr.readKeywordAndDict(l1);
-            dictMap.put(k1, l1);
+        segMgr.readInitiate();
+        while (!remaining.isEmpty() && segMgr.hasKeyWord()) {
+            List<Integer> dict = new ArrayList<>();
+            String keyword = segMgr.readKeywordAndDict(dict);
+            if (remaining.remove(keyword)) {
+                dictMap.put(keyword, dict);
+            } else if (keyword.compareTo(remaining.last()) > 0) {
+                break;
+            }
+        }
+        return dictMap;
+    }
+
+    /**
+     * Returns the decoded posting lists of the dictionary entries of a segment, from the posting list cache when they are there.
+     * The posting and term frequency files (and the position metadata file) are only read for the lists missing from the cache.
+     */
+    private Map<String, DecodedPostingList> readPostingLists(SegmentInDiskManager segMgr, SegmentInfo segment,
+                                                             Map<String, List<Integer>> dictMap) {
+        Map<String, DecodedPostingList> postingLists = new TreeMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String keyword : dictMap.keySet()) {
+            DecodedPostingList postingList = postingCache == null ? null : postingCache.get(segment.name, keyword);
+            if (postingList == null) {
+                missing.add(keyword);
+            } else {
+                postingLists.put(keyword, postingList);
+            }
+        }
+        if (missing.isEmpty()) {
+            return postingLists;
         }
 
         segMgr.readPostingInitiate();
+        segMgr.readTFInitiate();
         if (isPositionalIndex()) {
             segMgr.readPositionMetaInitiate();
-            segMgr.readPositionInitiate();
-
         }
-        if (dictMap.containsKey(keyword)) {
-            postingList = segMgr.readDocIdList(dictMap.get(keyword).get(0),
-                    dictMap.get(keyword).get(1), dictMap.get(keyword).get(2), dictMap.get(keyword).get(3));
+        for (String keyword : missing) {
+            List<Integer> dict = dictMap.get(keyword);
+            List<Integer> docIds = decodePostingList(segMgr.readPostingBytes(dict.get(0), dict.get(1), dict.get(2)));
+            DecodedPostingList postingList = DecodedPostingList.of(docIds, segMgr.readPostingMetadata(dict.get(3), docIds.size()),
+                    isPositionalIndex());
+            if (postingCache != null) {
+                postingCache.put(segment.name, keyword, postingList);
+            }
+            postingLists.put(keyword, postingList);
         }
-        segMgr.close();
-        return postingList;
+        return postingLists;
     }
 
-
-    private void sort(File[] files) {
-        Arrays.sort(files, new Comparator<File>() {
-            @Override
-            public int compare(File o1, File o2) {
-                int n1 = extractNumber(o1.getName());
-                int n2 = extractNumber(o2.getName());
-                return n1 - n2;
-            }
-
-            private int extractNumber(String name) {
-                int i = 0;
-                try {
-                    int s = name.indexOf('_') + 1;
-                    String number = name.substring(s);
-                    i = Integer.parseInt(number);
-                } catch (Exception e) {
-                    i = 0;
-                }
-                return i;
-            }
-        });
+    private List<Integer> decodePostingList(byte[] bytes) {
+        if (isPositionalIndex()) {
+            return iiCompressor.decode(bytes);
+        }
+        return new NaiveCompressor().decode(bytes);
     }
 
+
     private boolean isPositionalIndex() {
         return iiCompressor != null;
     }
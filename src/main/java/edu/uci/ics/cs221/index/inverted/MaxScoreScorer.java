@@ -0,0 +1,140 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.function.DoubleSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Scores the documents of a segment by cosine similarity with the query, document at a time, skipping the documents
+ * which can't enter the top K (MaxScore).
+ * <p>
+ * The score of a document is `sum(x_w * q_w) / sqrt(sum(x_w^2))` over the query terms `w` it contains,
+ * where `x_w` is the TF-IDF of the term in the document and `q_w` its TF-IDF in the query.
+ * By Cauchy-Schwarz it's at most `sqrt(sum(q_w^2))` over the same terms, whatever the term frequencies,
+ * so the upper bound of every term only depends on the query.
+ * <p>
+ * The terms are sorted by query weight. The lightest terms whose bounds together can't beat the K-th best score so far
+ * are non-essential: the candidates only come from the posting lists of the essential terms,
+ * and the non-essential lists are only advanced (galloping) to the candidates whose bound can still beat the K-th score.
+ */
+class MaxScoreScorer {
+
+    interface ScoreConsumer {
+        void accept(int doc, double score);
+    }
+
+    /**
+     * The bounds are raised by this factor, so rounding errors never make a bound lower than a score it should cover
+     */
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
+    private final int[][] docIdLists;
+    private final int[][] tfLists;
+    private final double[] idf;
+    private final double[] queryWeights;
+
+    /**
+     * Terms by increasing query weight, and `prefixSquares[i]`, the sum of the squared weights of the first i of them
+     */
+    private final int[] order;
+    private final double[] prefixSquares;
+
+    /**
+     * @param docIdLists   document IDs of every term, the terms are summed in this order
+     * @param tfLists      term frequencies of every term
+     * @param idf          IDF of every term
+     * @param queryWeights TF-IDF of every term in the query
+     */
+    MaxScoreScorer(int[][] docIdLists, int[][] tfLists, double[] idf, double[] queryWeights) {
+        this.docIdLists = docIdLists;
+        this.tfLists = tfLists;
+        this.idf = idf;
+        this.queryWeights = queryWeights;
+
+        order = IntStream.range(0, docIdLists.length).boxed()
+                .sorted(Comparator.comparingDouble(t -> queryWeights[t])).mapToInt(Integer::intValue).toArray();
+        prefixSquares = new double[order.length + 1];
+        for (int i = 0; i < order.length; i++) {
+            prefixSquares[i + 1] = prefixSquares[i] + queryWeights[order[i]] * queryWeights[order[i]];
+        }
+    }
+
+    /**
+     * Scores the documents from `start` (inclusive) to `end` (exclusive) which can beat `threshold`,
+     * i.e. the K-th best score so far (negative infinity until there are K scores).
+     * A document whose score could only tie the threshold is skipped, it comes after the documents already scored.
+     */
+    void score(int start, int end, BitSet deleted, DoubleSupplier threshold, ScoreConsumer consumer) {
+        int numTerms = order.length;
+        PostingIterator[] iterators = new PostingIterator[numTerms];
+        for (int t = 0; t < numTerms; t++) {
+            iterators[t] = new PostingIterator(docIdLists[t]);
+            // galloping to the start of the range
+            iterators[t].advance(start);
+        }
+        double[] tfidf = new double[numTerms];
+        boolean[] matched = new boolean[numTerms];
+
+        int firstEssential = 0;
+        while (true) {
+            double minScore = threshold.getAsDouble();
+            while (firstEssential < numTerms && bound(prefixSquares[firstEssential + 1]) <= minScore) {
+                ++firstEssential;
+            }
+            if (firstEssential == numTerms) {
+                // no document can beat the threshold anymore
+                return;
+            }
+
+            // the next candidate is the smallest document of the essential terms
+            int doc = DocIdIterator.NO_MORE_DOCS;
+            for (int i = firstEssential; i < numTerms; i++) {
+                doc = Math.min(doc, iterators[order[i]].docId());
+            }
+            if (doc >= end) {
+                return;
+            }
+
+            double essentialSquares = 0;
+            for (int i = firstEssential; i < numTerms; i++) {
+                int t = order[i];
+                if (iterators[t].docId() == doc) {
+                    tfidf[t] = tfLists[t][iterators[t].index()] * idf[t];
+                    matched[t] = true;
+                    essentialSquares += queryWeights[t] * queryWeights[t];
+                    iterators[t].nextDoc();
+                }
+            }
+
+            if (!deleted.get(doc) && bound(essentialSquares + prefixSquares[firstEssential]) > minScore) {
+                for (int i = 0; i < firstEssential; i++) {
+                    int t = order[i];
+                    if (iterators[t].docId() < doc) {
+                        iterators[t].advance(doc);
+                    }
+                    if (iterators[t].docId() == doc) {
+                        tfidf[t] = tfLists[t][iterators[t].index()] * idf[t];
+                        matched[t] = true;
+                    }
+                }
+
+                double dotProduct = 0;
+                double vectorLength = 0;
+                for (int t = 0; t < numTerms; t++) {
+                    if (matched[t]) {
+                        dotProduct += tfidf[t] * queryWeights[t];
+                        vectorLength += tfidf[t] * tfidf[t];
+                    }
+                }
+                consumer.accept(doc, dotProduct == 0.0 && vectorLength == 0.0 ? 0.0 : dotProduct / Math.sqrt(vectorLength));
+            }
+            Arrays.fill(matched, false);
+        }
+    }
+
+    private static double bound(double squares) {
+        return Math.sqrt(squares) * BOUND_SLACK;
+    }
+}
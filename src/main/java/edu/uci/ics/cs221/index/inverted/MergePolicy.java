@@ -0,0 +1,22 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.List;
+
+/**
+ * Decides which segments of an inverted index are merged together.
+ * <p>
+ * Documents keep their order across segments, so only consecutive segments can be merged.
+ */
+public interface MergePolicy {
+
+    /**
+     * Finds the merges to run on the index, it's called every time a new segment is added
+     * and again after the merges it returned are done, until it returns no merge.
+     *
+     * @param segmentSizes number of documents in each segment, in segment order
+     * @return merges to run, each one is a list of at least two consecutive segment numbers.
+     * Two merges can't share a segment.
+     */
+    List<List<Integer>> findMerges(List<Integer> segmentSizes);
+
+}
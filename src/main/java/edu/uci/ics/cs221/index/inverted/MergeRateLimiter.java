@@ -0,0 +1,79 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Limits the number of bytes per second read and written by the merges of an inverted index,
+ * so merges leave disk bandwidth to searches.
+ * <p>
+ * All the merges of an index share one limiter. The limit is relaxed when merges fall behind:
+ * once more than `backlog` segments are waiting to be merged, it doubles for every further `backlog` segments.
+ */
+class MergeRateLimiter {
+
+    /**
+     * Shorter pauses are not worth sleeping for, the time is added to the next pause instead
+     */
+    private static final long MIN_PAUSE_NANOS = 2_000_000;
+
+    private final long bytesPerSec;
+    private final int backlog;
+    private final IntSupplier pendingSegments;
+
+    /**
+     * Time at which the next read or write may start
+     */
+    private long nextNanos;
+
+    /**
+     * @param bytesPerSec     maximum number of bytes per second, non-positive for no limit
+     * @param backlog         number of pending segments above which the limit is relaxed
+     * @param pendingSegments number of segments waiting to be merged
+     */
+    MergeRateLimiter(long bytesPerSec, int backlog, IntSupplier pendingSegments) {
+        this.bytesPerSec = bytesPerSec;
+        this.backlog = Math.max(1, backlog);
+        this.pendingSegments = pendingSegments;
+        nextNanos = System.nanoTime();
+    }
+
+    /**
+     * Current limit in bytes per second, non-positive for no limit.
+     */
+    double getBytesPerSec() {
+        if (bytesPerSec <= 0) {
+            return 0;
+        }
+        int pending = pendingSegments.getAsInt();
+        int doublings = pending <= backlog ? 0 : (pending - 1) / backlog;
+        return bytesPerSec * Math.pow(2, Math.min(doublings, 30));
+    }
+
+    /**
+     * Waits until `bytes` more bytes can be read or written without going over the limit.
+     */
+    void pause(long bytes) {
+        double rate = getBytesPerSec();
+        if (rate <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            // reserve a time slot, so concurrent merges take turns
+            long now = System.nanoTime();
+            long start = Math.max(nextNanos, now);
+            nextNanos = start + (long) (bytes * 1e9 / rate);
+            waitNanos = start - now;
+        }
+
+        if (waitNanos >= MIN_PAUSE_NANOS) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the merges of an inverted index on a pool of background merge threads.
+ * <p>
+ * With 0 merge threads, a merge runs on the thread which asks for it (i.e. the thread committing a new segment).
+ */
+class MergeScheduler {
+
+    private final int numThreads;
+    private final String name;
+
+    /**
+     * Merge threads, created with the first background merge
+     */
+    private ExecutorService executor;
+
+    /**
+     * Number of merges scheduled but not done yet, and the failure of a background merge
+     */
+    private int pendingMerges;
+    private Throwable mergeException;
+
+    /**
+     * Whether the scheduler is closed, no merge is started anymore
+     */
+    private boolean closed;
+
+    MergeScheduler(int numThreads, String name) {
+        this.numThreads = numThreads;
+        this.name = name;
+        pendingMerges = 0;
+    }
+
+    /**
+     * Runs the merge in the background, or right away when there is no merge thread.
+     * Once the scheduler is closed, the merge is skipped.
+     */
+    void merge(Runnable merge) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            ++pendingMerges;
+            if (numThreads > 0 && executor == null) {
+                executor = Executors.newFixedThreadPool(numThreads, r -> {
+                    Thread t = new Thread(r, "merger " + name);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        if (numThreads <= 0) {
+            try {
+                merge.run();
+            } finally {
+                finishMerge();
+            }
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                merge.run();
+            } catch (Throwable e) {
+                synchronized (this) {
+                    mergeException = e;
+                }
+            } finally {
+                finishMerge();
+            }
+        });
+    }
+
+    private synchronized void finishMerge() {
+        --pendingMerges;
+        notifyAll();
+    }
+
+    /**
+     * Waits until all the scheduled merges (and the merges they cascade into) are done.
+     */
+    synchronized void waitForMerges() {
+        while (pendingMerges > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        checkMergeException();
+    }
+
+    /**
+     * Stops starting merges (the merges cascading from running ones included), waits for the running merges,
+     * then stops the merge threads.
+     */
+    void close() {
+        ExecutorService mergers;
+        synchronized (this) {
+            closed = true;
+            while (pendingMerges > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            mergers = executor;
+            executor = null;
+        }
+        if (mergers != null) {
+            mergers.shutdown();
+            try {
+                mergers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        checkMergeException();
+    }
+
+    /**
+     * Rethrows the failure of a background merge.
+     */
+    synchronized void checkMergeException() {
+        Throwable e = mergeException;
+        if (e != null) {
+            mergeException = null;
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -27,4 +27,20 @@ public class NaiveCompressor implements Compressor {
         return integers;
     }
 
+    @Override
+    public byte[] concat(List<byte[]> encodedLists, List<Integer> shifts) {
+        int length = 0;
+        for (byte[] bytes : encodedLists) {
+            length += bytes.length;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < encodedLists.size(); i++) {
+            ByteBuffer list = ByteBuffer.wrap(encodedLists.get(i));
+            while (list.hasRemaining()) {
+                byteBuffer.putInt(list.getInt() + shifts.get(i));
+            }
+        }
+        return byteBuffer.array();
+    }
+
 }
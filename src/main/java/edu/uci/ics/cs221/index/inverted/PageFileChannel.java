@@ -50,6 +50,11 @@ public class PageFileChannel implements AutoCloseable {
 
     private FileChannel fileChannel;
 
+    /**
+     * Throttles the reads and writes of a file being merged, null for no limit.
+     */
+    private MergeRateLimiter rateLimiter;
+
     private PageFileChannel(FileChannel fileChannel) {
         this.fileChannel = fileChannel;
     }
@@ -82,6 +87,9 @@ public class PageFileChannel implements AutoCloseable {
     public ByteBuffer readPage(int pageNum) {
         try {
             readCounter++;
+            if (rateLimiter != null) {
+                rateLimiter.pause(PAGE_SIZE);
+            }
             ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
             this.fileChannel.read(buffer, pageNum * PAGE_SIZE);
             buffer.rewind();
@@ -115,6 +123,9 @@ public class PageFileChannel implements AutoCloseable {
     public void writePage(long pageNum, ByteBuffer byteBuffer) {
         try {
             Preconditions.checkArgument(byteBuffer.capacity() == PAGE_SIZE);
+            if (rateLimiter != null) {
+                rateLimiter.pause(PAGE_SIZE);
+            }
             byteBuffer.rewind();
             this.fileChannel.write(byteBuffer, pageNum * PAGE_SIZE);
             writeCounter++;
@@ -159,6 +170,13 @@ public class PageFileChannel implements AutoCloseable {
         }
     }
 
+    /**
+     * Throttles all the following reads and writes of the file.
+     */
+    void setRateLimiter(MergeRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
     /**
      * Closes the file.
      */
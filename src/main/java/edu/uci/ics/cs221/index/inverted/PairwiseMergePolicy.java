@@ -0,0 +1,27 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges all the segments pair-wise (`segment_0` with `segment_1` and so on)
+ * when the number of segments reaches `InvertedIndexManager.DEFAULT_MERGE_THRESHOLD`.
+ * <p>
+ * Every merge rewrites the whole index.
+ */
+public class PairwiseMergePolicy implements MergePolicy {
+
+    @Override
+    public List<List<Integer>> findMerges(List<Integer> segmentSizes) {
+        List<List<Integer>> merges = new ArrayList<>();
+        if (segmentSizes.size() < InvertedIndexManager.DEFAULT_MERGE_THRESHOLD) {
+            return merges;
+        }
+        for (int i = 1; i < segmentSizes.size(); i += 2) {
+            merges.add(Arrays.asList(i - 1, i));
+        }
+        return merges;
+    }
+
+}
@@ -0,0 +1,141 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+import edu.uci.ics.cs221.index.inverted.PostingCache.DecodedPostingList;
+
+import java.util.*;
+
+/**
+ * Finds the documents of a segment containing a phrase, i.e. its keywords at consecutive positions.
+ * <p>
+ * The documents containing all the keywords are found first by a `ConjunctionIterator` over the posting lists,
+ * no position list is read for the other documents.
+ * Then every such document is checked keyword by keyword, from the rarest keyword to the most frequent one:
+ * the positions of the rarest keyword give the possible starts of the phrase, and every other keyword keeps
+ * the starts it's found at the right offset from.
+ * Position lists are read lazily, the lists of the frequent keywords are not read once no start is left.
+ * <p>
+ * The matcher is also a `DocIdIterator` over the matching documents, so a phrase can be a clause of a boolean query
+ * (only the candidates of the other clauses are checked then). Either iterate it or call `match()`, not both.
+ */
+class PhraseMatcher implements DocIdIterator {
+
+    /**
+     * (keyword, offset in the phrase) of every keyword of the phrase, from the rarest keyword to the most frequent one
+     */
+    private final List<String> keywords;
+    private final List<Integer> offsets;
+    private final Map<String, PostingIterator> iterators;
+    private final DocIdIterator conjunction;
+    private final PositionReader reader;
+
+    /**
+     * @param phrase       the keywords of the phrase, not empty
+     * @param postingLists posting lists of all the keywords of the phrase
+     */
+    PhraseMatcher(List<String> phrase, Map<String, DecodedPostingList> postingLists, PositionReader reader) {
+        Preconditions.checkArgument(!phrase.isEmpty());
+        this.reader = reader;
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < phrase.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt((Integer i) -> postingLists.get(phrase.get(i)).size()).thenComparingInt(i -> i));
+        keywords = new ArrayList<>();
+        offsets = new ArrayList<>();
+        for (int i : order) {
+            keywords.add(phrase.get(i));
+            offsets.add(i);
+        }
+
+        iterators = new HashMap<>();
+        for (String keyword : phrase) {
+            iterators.computeIfAbsent(keyword, k -> new PostingIterator(postingLists.get(k).docIds));
+        }
+        conjunction = new ConjunctionIterator(new ArrayList<>(iterators.values()));
+    }
+
+    /**
+     * Returns the IDs of the documents containing the phrase in ascending order, skipping the deleted ones.
+     */
+    List<Integer> match(BitSet deleted) {
+        List<Integer> docIds = new ArrayList<>();
+        for (int doc = conjunction.nextDoc(); doc != NO_MORE_DOCS; doc = conjunction.nextDoc()) {
+            if (!deleted.get(doc) && matches()) {
+                docIds.add(doc);
+            }
+        }
+        return docIds;
+    }
+
+    @Override
+    public int docId() {
+        return conjunction.docId();
+    }
+
+    @Override
+    public int nextDoc() {
+        return doNext(conjunction.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        return doNext(conjunction.advance(target));
+    }
+
+    private int doNext(int doc) {
+        while (doc != NO_MORE_DOCS && !matches()) {
+            doc = conjunction.nextDoc();
+        }
+        return doc;
+    }
+
+    @Override
+    public long cost() {
+        return conjunction.cost();
+    }
+
+    /**
+     * Checks the positions of the keywords in the current document of the conjunction.
+     */
+    private boolean matches() {
+        // positions read so far in the document, a keyword repeated in the phrase is only read once
+        Map<String, int[]> positions = new HashMap<>();
+
+        int[] starts = null;
+        int numStarts = 0;
+        for (int i = 0; i < keywords.size(); i++) {
+            String keyword = keywords.get(i);
+            int offset = offsets.get(i);
+            int[] keywordPositions = positions.computeIfAbsent(keyword, k -> reader.read(k, iterators.get(k).index()));
+
+            if (starts == null) {
+                starts = new int[keywordPositions.length];
+                for (int p : keywordPositions) {
+                    if (p >= offset) {
+                        starts[numStarts++] = p - offset;
+                    }
+                }
+            } else {
+                // both lists are sorted, keep the starts whose keyword position is in the list
+                int kept = 0;
+                int k = 0;
+                for (int s = 0; s < numStarts; s++) {
+                    int target = starts[s] + offset;
+                    while (k < keywordPositions.length && keywordPositions[k] < target) {
+                        k++;
+                    }
+                    if (k < keywordPositions.length && keywordPositions[k] == target) {
+                        starts[kept++] = starts[s];
+                    }
+                }
+                numStarts = kept;
+            }
+            if (numStarts == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
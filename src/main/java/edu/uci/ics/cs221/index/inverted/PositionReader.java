@@ -0,0 +1,8 @@
+package edu.uci.ics.cs221.index.inverted;
+
+/**
+ * Reads the positions of a keyword in a document, `index` is the position of the document in the posting list of the keyword.
+ */
+interface PositionReader {
+    int[] read(String keyword, int index);
+}
@@ -0,0 +1,95 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A cache of decoded posting lists, keyed by segment name and keyword, bounded by the size of the lists in bytes.
+ * <p>
+ * Segments are never modified once written (deletions are kept aside), so a cached list stays valid
+ * until its segment is deleted.
+ * <p>
+ * The bound is approximate: lists are evicted from the least recently used ones before the bound is reached,
+ * and a list bigger than a fraction of the bound is not kept at all.
+ */
+class PostingCache {
+
+    /**
+     * A decoded posting list: the document IDs, their term frequencies,
+     * and the metadata of their position lists (page | offset | length of each list, only for a positional index)
+     */
+    static class DecodedPostingList {
+        final int[] docIds;
+        final int[] tfs;
+        final int[] positions;
+
+        DecodedPostingList(int[] docIds, int[] tfs, int[] positions) {
+            this.docIds = docIds;
+            this.tfs = tfs;
+            this.positions = positions;
+        }
+
+        /**
+         * Builds the list from the decoded document IDs and the metadata read by `SegmentInDiskManager.readPostingMetadata()`.
+         */
+        static DecodedPostingList of(List<Integer> docIds, List<List<Integer>> metadata, boolean positional) {
+            int[] ids = new int[docIds.size()];
+            int[] tfs = new int[docIds.size()];
+            int[] positions = positional ? new int[docIds.size() * 3] : null;
+            for (int i = 0; i < ids.length; i++) {
+                List<Integer> v = metadata.get(i);
+                ids[i] = docIds.get(i);
+                // term frequency is the last element
+                tfs[i] = v.get(v.size() - 1);
+                if (positional) {
+                    positions[i * 3] = v.get(0);
+                    positions[i * 3 + 1] = v.get(1);
+                    positions[i * 3 + 2] = v.get(2);
+                }
+            }
+            return new DecodedPostingList(ids, tfs, positions);
+        }
+
+        int size() {
+            return docIds.length;
+        }
+
+        int sizeInBytes() {
+            return (docIds.length + tfs.length + (positions == null ? 0 : positions.length)) * Integer.BYTES;
+        }
+    }
+
+    private final Cache<List<String>, DecodedPostingList> lists;
+
+    PostingCache(long maxBytes) {
+        lists = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((List<String> key, DecodedPostingList list) -> list.sizeInBytes() + key.get(1).length() * Character.BYTES)
+                .build();
+    }
+
+    /**
+     * Returns the cached posting list of the keyword in the segment, or null.
+     */
+    DecodedPostingList get(String segment, String keyword) {
+        return lists.getIfPresent(Arrays.asList(segment, keyword));
+    }
+
+    void put(String segment, String keyword, DecodedPostingList list) {
+        lists.put(Arrays.asList(segment, keyword), list);
+    }
+
+    /**
+     * Drops the lists of a deleted segment.
+     */
+    void invalidateSegment(String segment) {
+        lists.asMap().keySet().removeIf(key -> key.get(0).equals(segment));
+    }
+
+    long size() {
+        return lists.size();
+    }
+}
@@ -0,0 +1,83 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.List;
+
+/**
+ * Iterates through a decoded posting list.
+ * <p>
+ * `advance()` gallops: it looks 1, 2, 4, ... documents ahead until it passes the target,
+ * then binary searches the last step. Skipping `n` documents costs `O(log n)`.
+ */
+class PostingIterator implements DocIdIterator {
+
+    private final int[] docIds;
+    private int index;
+
+    PostingIterator(int[] docIds) {
+        this.docIds = docIds;
+        index = -1;
+    }
+
+    PostingIterator(List<Integer> docIds) {
+        this(docIds.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Override
+    public int docId() {
+        if (index < 0) {
+            return -1;
+        }
+        return index < docIds.length ? docIds[index] : NO_MORE_DOCS;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (index < docIds.length) {
+            ++index;
+        }
+        return docId();
+    }
+
+    @Override
+    public int advance(int target) {
+        int low = index + 1;
+        if (low >= docIds.length || docIds[low] >= target) {
+            index = Math.min(low, docIds.length);
+            return docId();
+        }
+
+        // docIds[low] < target, gallop until docIds[high] >= target or the end of the list
+        int step = 1;
+        int high = low + step;
+        while (high < docIds.length && docIds[high] < target) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, docIds.length);
+
+        // first position in (low, high] whose document is >= target
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (docIds[mid] < target) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        index = high;
+        return docId();
+    }
+
+    /**
+     * Returns the position of the current document in the posting list
+     */
+    int index() {
+        return index;
+    }
+
+    @Override
+    public long cost() {
+        return docIds.length;
+    }
+}
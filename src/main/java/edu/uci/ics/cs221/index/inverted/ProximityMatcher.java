@@ -0,0 +1,135 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+import edu.uci.ics.cs221.index.inverted.PostingCache.DecodedPostingList;
+
+import java.util.*;
+
+/**
+ * Finds the documents of a segment containing all the terms within a window:
+ * the terms (at distinct positions) span at most `terms.size() + slop` positions, so a slop of 0 means adjacent terms.
+ * When ordered, the terms must also be in the order of the query, i.e. an ordered match with a slop of 0 is a phrase.
+ * <p>
+ * The documents containing all the terms are found first by a `ConjunctionIterator` over the posting lists,
+ * then the position lists of every such document are merged in a single pass.
+ */
+class ProximityMatcher {
+
+    private final List<String> terms;
+    private final int slop;
+    private final boolean ordered;
+    private final Map<String, PostingIterator> iterators;
+    private final DocIdIterator conjunction;
+    private final PositionReader reader;
+
+    /**
+     * @param terms        the terms of the query, not empty
+     * @param postingLists posting lists of all the terms
+     */
+    ProximityMatcher(List<String> terms, int slop, boolean ordered, Map<String, DecodedPostingList> postingLists, PositionReader reader) {
+        Preconditions.checkArgument(!terms.isEmpty() && slop >= 0);
+        this.terms = terms;
+        this.slop = slop;
+        this.ordered = ordered;
+        this.reader = reader;
+
+        iterators = new LinkedHashMap<>();
+        for (String term : terms) {
+            iterators.computeIfAbsent(term, k -> new PostingIterator(postingLists.get(k).docIds));
+        }
+        conjunction = new ConjunctionIterator(new ArrayList<>(iterators.values()));
+    }
+
+    /**
+     * Returns the IDs of the matching documents in ascending order, skipping the deleted ones.
+     */
+    List<Integer> match(BitSet deleted) {
+        List<Integer> docIds = new ArrayList<>();
+        for (int doc = conjunction.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = conjunction.nextDoc()) {
+            if (deleted.get(doc)) {
+                continue;
+            }
+            Map<String, int[]> positions = new HashMap<>();
+            for (Map.Entry<String, PostingIterator> entry : iterators.entrySet()) {
+                positions.put(entry.getKey(), reader.read(entry.getKey(), entry.getValue().index()));
+            }
+            if (ordered ? matchesOrdered(positions) : matchesUnordered(positions)) {
+                docIds.add(doc);
+            }
+        }
+        return docIds;
+    }
+
+    /**
+     * Whether the terms are found in order within the window.
+     * <p>
+     * For every position of the first term, each following term takes its first position after the previous term,
+     * which gives the shortest match starting there. These positions only move forward as the first position does,
+     * so every position list is scanned once.
+     */
+    private boolean matchesOrdered(Map<String, int[]> positions) {
+        int n = terms.size();
+        int[] next = new int[n];
+        for (int first : positions.get(terms.get(0))) {
+            int previous = first;
+            for (int j = 1; j < n; j++) {
+                int[] termPositions = positions.get(terms.get(j));
+                while (next[j] < termPositions.length && termPositions[next[j]] <= previous) {
+                    next[j]++;
+                }
+                if (next[j] == termPositions.length) {
+                    // the following starts can't be completed either
+                    return false;
+                }
+                previous = termPositions[next[j]];
+            }
+            if (previous - first - (n - 1) <= slop) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the terms are found in any order within the window.
+     * <p>
+     * A term repeated `m` times in the query takes `m` consecutive positions of its list.
+     * The positions of all the terms are merged by a heap: the window goes from the smallest position taken to the greatest one,
+     * and the term at the smallest position moves forward by one, so every position list is scanned once.
+     */
+    private boolean matchesUnordered(Map<String, int[]> positions) {
+        int numTerms = iterators.size();
+        int[][] lists = new int[numTerms][];
+        int[] counts = new int[numTerms];
+        int[] starts = new int[numTerms];
+        int i = 0;
+        for (String term : iterators.keySet()) {
+            lists[i] = positions.get(term);
+            counts[i] = Collections.frequency(terms, term);
+            if (lists[i].length < counts[i]) {
+                return false;
+            }
+            i++;
+        }
+
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Comparator.comparingInt(t -> lists[t][starts[t]]));
+        int max = Integer.MIN_VALUE;
+        for (int t = 0; t < numTerms; t++) {
+            heap.add(t);
+            max = Math.max(max, lists[t][counts[t] - 1]);
+        }
+        while (true) {
+            int t = heap.poll();
+            if (max - lists[t][starts[t]] - (terms.size() - 1) <= slop) {
+                return true;
+            }
+            starts[t]++;
+            int last = starts[t] + counts[t] - 1;
+            if (last >= lists[t].length) {
+                return false;
+            }
+            max = Math.max(max, lists[t][last]);
+            heap.add(t);
+        }
+    }
+}
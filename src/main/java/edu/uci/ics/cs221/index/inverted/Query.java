@@ -0,0 +1,506 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+import edu.uci.ics.cs221.analysis.Analyzer;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A boolean query: keywords and phrases combined by AND, OR and NOT, nested arbitrarily. For example:
+ * <pre>
+ *     Query.and(Query.term("apple"), Query.or(Query.term("pie"), Query.phrase("ice", "cream")), Query.not(Query.term("banana")))
+ * </pre>
+ * `InvertedIndexManager.searchBooleanQuery()` plans the query for every segment before evaluating it:
+ * the cost of a clause is estimated from the document frequencies of the dictionary (no posting list is read for it),
+ * the clauses of an AND are planned cheapest first and the AND stops at the first clause matching nothing,
+ * and the clauses of an OR matching nothing are dropped.
+ * Only the posting lists of the clauses left are read, and the cheapest clause of an AND leads the evaluation.
+ * <p>
+ * Keywords are analyzed like the keywords of `searchAndQuery()`, clauses left without keywords (e.g. stop words) are ignored.
+ * Under an AND, a NOT clause excludes its documents from the other clauses. Anywhere else, it matches all the other documents.
+ * <p>
+ * Queries are equal if they have the same structure: the same clauses in the same order, the same keywords.
+ */
+public abstract class Query {
+
+    /**
+     * Documents containing the keyword
+     */
+    public static Query term(String keyword) {
+        return new Term(Preconditions.checkNotNull(keyword));
+    }
+
+    /**
+     * Documents matched by all the clauses
+     */
+    public static Query and(Query... clauses) {
+        return and(Arrays.asList(clauses));
+    }
+
+    public static Query and(List<Query> clauses) {
+        Preconditions.checkArgument(!clauses.isEmpty());
+        return new And(new ArrayList<>(clauses));
+    }
+
+    /**
+     * Documents matched by any of the clauses
+     */
+    public static Query or(Query... clauses) {
+        return or(Arrays.asList(clauses));
+    }
+
+    public static Query or(List<Query> clauses) {
+        Preconditions.checkArgument(!clauses.isEmpty());
+        return new Or(new ArrayList<>(clauses));
+    }
+
+    /**
+     * Documents not matched by the clause
+     */
+    public static Query not(Query clause) {
+        return new Not(Preconditions.checkNotNull(clause));
+    }
+
+    /**
+     * Documents containing the keywords at consecutive positions, only supported by a positional index
+     */
+    public static Query phrase(String... keywords) {
+        return phrase(Arrays.asList(keywords));
+    }
+
+    public static Query phrase(List<String> keywords) {
+        Preconditions.checkArgument(!keywords.isEmpty());
+        return new Phrase(new ArrayList<>(keywords));
+    }
+
+    /**
+     * Returns the query with analyzed keywords, or null if no keyword is left.
+     */
+    abstract Query analyze(Analyzer analyzer);
+
+    /**
+     * Returns the estimated number of documents matched in the segment.
+     */
+    abstract long cost(QueryContext context);
+
+    /**
+     * Returns the query to evaluate on the segment, without the clauses matching nothing in it,
+     * or null if the query matches nothing in it.
+     */
+    abstract Query plan(QueryContext context);
+
+    abstract void collectKeywords(Set<String> keywords);
+
+    abstract boolean hasPhrase();
+
+    /**
+     * Returns an iterator over the documents matched in the segment, the query must be planned for the segment.
+     */
+    abstract DocIdIterator iterator(QueryContext context);
+
+    private static List<Query> analyzeAll(List<Query> clauses, Analyzer analyzer) {
+        return clauses.stream().map(clause -> clause.analyze(analyzer)).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    static class Term extends Query {
+        private final String keyword;
+
+        Term(String keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            List<String> tokens = analyzer.analyze(keyword);
+            if (tokens.isEmpty()) {
+                return null;
+            }
+            if (tokens.size() == 1) {
+                return new Term(tokens.get(0));
+            }
+            return new And(tokens.stream().map(Term::new).collect(Collectors.toList()));
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            return context.docFreq(keyword);
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            return context.docFreq(keyword) == 0 ? null : this;
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+            keywords.add(keyword);
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return false;
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            return context.postings(keyword);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Term && keyword.equals(((Term) o).keyword);
+        }
+
+        @Override
+        public int hashCode() {
+            return keyword.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return keyword;
+        }
+    }
+
+    static class And extends Query {
+        private final List<Query> clauses;
+
+        And(List<Query> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            List<Query> analyzed = analyzeAll(clauses, analyzer);
+            if (analyzed.isEmpty()) {
+                return null;
+            }
+            return analyzed.size() == 1 ? analyzed.get(0) : new And(analyzed);
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            long cost = context.numDocs();
+            for (Query clause : clauses) {
+                if (!(clause instanceof Not)) {
+                    cost = Math.min(cost, clause.cost(context));
+                }
+            }
+            return cost;
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            // required clauses cheapest first, the first one matching nothing ends the planning
+            List<Query> required = clauses.stream().filter(clause -> !(clause instanceof Not)).collect(Collectors.toList());
+            required.sort(Comparator.comparingLong(clause -> clause.cost(context)));
+            List<Query> planned = new ArrayList<>();
+            for (Query clause : required) {
+                Query plannedClause = clause.plan(context);
+                if (plannedClause == null) {
+                    return null;
+                }
+                planned.add(plannedClause);
+            }
+            if (planned.isEmpty()) {
+                planned.add(new MatchAll());
+            }
+
+            // excluded clauses matching nothing don't exclude anything
+            for (Query clause : clauses) {
+                if (clause instanceof Not) {
+                    Query excluded = ((Not) clause).clause.plan(context);
+                    if (excluded != null) {
+                        planned.add(new Not(excluded));
+                    }
+                }
+            }
+            return planned.size() == 1 ? planned.get(0) : new And(planned);
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+            clauses.forEach(clause -> clause.collectKeywords(keywords));
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return clauses.stream().anyMatch(Query::hasPhrase);
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            List<DocIdIterator> required = new ArrayList<>();
+            List<DocIdIterator> excluded = new ArrayList<>();
+            for (Query clause : clauses) {
+                if (clause instanceof Not) {
+                    excluded.add(((Not) clause).clause.iterator(context));
+                } else {
+                    required.add(clause.iterator(context));
+                }
+            }
+            DocIdIterator it = required.size() == 1 ? required.get(0) : new ConjunctionIterator(required);
+            if (excluded.isEmpty()) {
+                return it;
+            }
+            return new ExclusionIterator(it, excluded.size() == 1 ? excluded.get(0) : new DisjunctionIterator(excluded));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof And && clauses.equals(((And) o).clauses);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clauses.hashCode() + 1;
+        }
+
+        @Override
+        public String toString() {
+            return clauses.stream().map(Query::toString).collect(Collectors.joining(", ", "AND(", ")"));
+        }
+    }
+
+    static class Or extends Query {
+        private final List<Query> clauses;
+
+        Or(List<Query> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            List<Query> analyzed = analyzeAll(clauses, analyzer);
+            if (analyzed.isEmpty()) {
+                return null;
+            }
+            return analyzed.size() == 1 ? analyzed.get(0) : new Or(analyzed);
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            long cost = 0;
+            for (Query clause : clauses) {
+                cost += clause.cost(context);
+            }
+            return Math.min(cost, context.numDocs());
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            List<Query> planned = new ArrayList<>();
+            for (Query clause : clauses) {
+                Query plannedClause = clause.plan(context);
+                if (plannedClause != null) {
+                    planned.add(plannedClause);
+                }
+            }
+            if (planned.isEmpty()) {
+                return null;
+            }
+            return planned.size() == 1 ? planned.get(0) : new Or(planned);
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+            clauses.forEach(clause -> clause.collectKeywords(keywords));
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return clauses.stream().anyMatch(Query::hasPhrase);
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            List<DocIdIterator> iterators = new ArrayList<>();
+            for (Query clause : clauses) {
+                iterators.add(clause.iterator(context));
+            }
+            return new DisjunctionIterator(iterators);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Or && clauses.equals(((Or) o).clauses);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clauses.hashCode() + 2;
+        }
+
+        @Override
+        public String toString() {
+            return clauses.stream().map(Query::toString).collect(Collectors.joining(", ", "OR(", ")"));
+        }
+    }
+
+    static class Not extends Query {
+        private final Query clause;
+
+        Not(Query clause) {
+            this.clause = clause;
+        }
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            Query analyzed = clause.analyze(analyzer);
+            return analyzed == null ? null : new Not(analyzed);
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            return context.numDocs();
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            Query planned = clause.plan(context);
+            return planned == null ? new MatchAll() : new Not(planned);
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+            clause.collectKeywords(keywords);
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return clause.hasPhrase();
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            return new ExclusionIterator(new AllDocsIterator(context.numDocs()), clause.iterator(context));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && clause.equals(((Not) o).clause);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * clause.hashCode() + 3;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT(" + clause + ")";
+        }
+    }
+
+    static class Phrase extends Query {
+        private final List<String> keywords;
+
+        Phrase(List<String> keywords) {
+            this.keywords = keywords;
+        }
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            List<String> tokens = analyzer.analyze(String.join(" ", keywords));
+            if (tokens.isEmpty()) {
+                return null;
+            }
+            return tokens.size() == 1 ? new Term(tokens.get(0)) : new Phrase(tokens);
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            long cost = context.numDocs();
+            for (String keyword : keywords) {
+                cost = Math.min(cost, context.docFreq(keyword));
+            }
+            return cost;
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            return cost(context) == 0 ? null : this;
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+            keywords.addAll(this.keywords);
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return true;
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            return context.phrase(keywords);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Phrase && keywords.equals(((Phrase) o).keywords);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * keywords.hashCode() + 4;
+        }
+
+        @Override
+        public String toString() {
+            return keywords.stream().collect(Collectors.joining(" ", "\"", "\""));
+        }
+    }
+
+    /**
+     * All the documents of the segment, the planned form of a NOT clause excluding nothing
+     */
+    static class MatchAll extends Query {
+
+        @Override
+        Query analyze(Analyzer analyzer) {
+            return this;
+        }
+
+        @Override
+        long cost(QueryContext context) {
+            return context.numDocs();
+        }
+
+        @Override
+        Query plan(QueryContext context) {
+            return this;
+        }
+
+        @Override
+        void collectKeywords(Set<String> keywords) {
+        }
+
+        @Override
+        boolean hasPhrase() {
+            return false;
+        }
+
+        @Override
+        DocIdIterator iterator(QueryContext context) {
+            return new AllDocsIterator(context.numDocs());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MatchAll;
+        }
+
+        @Override
+        public int hashCode() {
+            return 5;
+        }
+
+        @Override
+        public String toString() {
+            return "*";
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.List;
+
+/**
+ * The segment a `Query` is planned and evaluated on.
+ */
+interface QueryContext {
+
+    int numDocs();
+
+    /**
+     * Returns the number of documents of the segment containing the keyword, 0 if the keyword is not in the segment.
+     */
+    int docFreq(String keyword);
+
+    /**
+     * Returns an iterator over the posting list of a keyword found in the segment.
+     */
+    DocIdIterator postings(String keyword);
+
+    /**
+     * Returns an iterator over the documents containing the phrase, all its keywords are found in the segment.
+     */
+    DocIdIterator phrase(List<String> keywords);
+}
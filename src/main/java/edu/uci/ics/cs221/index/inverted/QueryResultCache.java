@@ -0,0 +1,56 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the hits of queries, keyed by the query type and its analyzed tokens (and the page for ranked queries).
+ * <p>
+ * Results are only valid for one generation of the segments of the index: committing a segment, merging segments
+ * and deleting documents moves the index to a new generation, which clears the cache.
+ * A result computed on an older generation is never added.
+ */
+class QueryResultCache {
+
+    private final Map<List<Object>, List<SearchHit>> entries;
+    private long generation;
+
+    QueryResultCache(int maxEntries) {
+        entries = new LinkedHashMap<List<Object>, List<SearchHit>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, List<SearchHit>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        generation = 0;
+    }
+
+    /**
+     * Returns the hits of the query on the segments of `generation`, or null if they are not cached.
+     */
+    synchronized List<SearchHit> get(List<Object> key, long generation) {
+        if (generation != this.generation) {
+            return null;
+        }
+        return entries.get(key);
+    }
+
+    synchronized void put(List<Object> key, long generation, List<SearchHit> hits) {
+        if (generation == this.generation) {
+            entries.put(key, hits);
+        }
+    }
+
+    /**
+     * Drops all the results, only results of the new generation are cached from now on.
+     */
+    synchronized void invalidate(long generation) {
+        this.generation = generation;
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
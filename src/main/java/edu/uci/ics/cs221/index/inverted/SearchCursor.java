@@ -0,0 +1,110 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+import edu.uci.ics.cs221.storage.Document;
+import edu.uci.ics.cs221.storage.DocumentStore;
+import edu.uci.ics.cs221.storage.MapdbDocStore;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Iterates through the hits of a search lazily: boolean and phrase queries search the segments as the cursor reaches them,
+ * so a cursor which is closed after the first hits doesn't search the remaining segments.
+ * Documents are only read when `getDocument()` or `getDocuments()` is called.
+ * <p>
+ * The cursor keeps the segments it searches until it's closed, so it must be closed (e.g. by try-with-resources).
+ */
+public class SearchCursor implements Iterator<SearchHit>, AutoCloseable {
+
+    private final String folder;
+    private final List<SegmentInfo> snapshot;
+    private final Consumer<List<SegmentInfo>> release;
+    private final Iterator<SearchHit> hits;
+
+    /**
+     * Document stores opened so far, by segment number
+     */
+    private final Map<Integer, DocumentStore> docStores;
+    private boolean closed;
+
+    SearchCursor(String folder, List<SegmentInfo> snapshot, Consumer<List<SegmentInfo>> release, Iterator<SearchHit> hits) {
+        this.folder = folder;
+        this.snapshot = snapshot;
+        this.release = release;
+        this.hits = hits;
+        docStores = new HashMap<>();
+        closed = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && hits.hasNext();
+    }
+
+    @Override
+    public SearchHit next() {
+        Preconditions.checkState(!closed, "the cursor is closed");
+        return hits.next();
+    }
+
+    /**
+     * Reads the document of a hit of this cursor.
+     */
+    public Document getDocument(SearchHit hit) {
+        Preconditions.checkState(!closed, "the cursor is closed");
+        return docStore(hit.getSegment()).getDocument(hit.getDocId());
+    }
+
+    /**
+     * Reads the documents of hits of this cursor, in the order of the hits.
+     * The hits are grouped by segment, and the documents of every segment are read in one batch by ascending document ID.
+     */
+    public List<Document> getDocuments(List<SearchHit> hits) {
+        Preconditions.checkState(!closed, "the cursor is closed");
+        // positions of the hits of every segment, sorted by document ID
+        Map<Integer, List<Integer>> bySegment = new TreeMap<>();
+        for (int i = 0; i < hits.size(); i++) {
+            bySegment.computeIfAbsent(hits.get(i).getSegment(), segment -> new ArrayList<>()).add(i);
+        }
+
+        Document[] documents = new Document[hits.size()];
+        for (Map.Entry<Integer, List<Integer>> entry : bySegment.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            positions.sort(Comparator.comparingInt(i -> hits.get(i).getDocId()));
+            int[] sortedIds = new int[positions.size()];
+            for (int j = 0; j < sortedIds.length; j++) {
+                sortedIds[j] = hits.get(positions.get(j)).getDocId();
+            }
+            Document[] segmentDocuments = docStore(entry.getKey()).getDocuments(sortedIds);
+            for (int j = 0; j < sortedIds.length; j++) {
+                documents[positions.get(j)] = segmentDocuments[j];
+            }
+        }
+        return Arrays.asList(documents);
+    }
+
+    /**
+     * Returns the document store of a segment, it's opened once and kept until the cursor is closed.
+     */
+    private DocumentStore docStore(int segment) {
+        return docStores.computeIfAbsent(segment,
+                s -> MapdbDocStore.createOrOpenReadOnly(folder + "DocStore_" + snapshot.get(s).name));
+    }
+
+    /**
+     * Closes the document stores and releases the segments.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (DocumentStore docStore : docStores.values()) {
+            docStore.close();
+        }
+        docStores.clear();
+        release.accept(snapshot);
+    }
+}
@@ -0,0 +1,69 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A document matching a query: the segment it's in, its document ID within the segment, and its score.
+ * Boolean and phrase queries don't score documents, their hits have a score of 0.
+ * <p>
+ * The document itself is fetched by `SearchCursor.getDocument()`.
+ */
+public class SearchHit {
+
+    final String segmentName;
+    private final int segment;
+    private final int docId;
+    private final double score;
+
+    /**
+     * Generation of the segments of the index the hit was found in, a ranked search only resumes after the hit
+     * on the same generation
+     */
+    final long generation;
+
+    SearchHit(String segmentName, int segment, int docId, double score, long generation) {
+        this.segmentName = segmentName;
+        this.segment = segment;
+        this.docId = docId;
+        this.score = score;
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the segment number of the hit, in the segments of the index when the search started.
+     */
+    public int getSegment() {
+        return segment;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Returns a token to get the hits after this one with `SearchPage.after()`.
+     * The token can't be used anymore once the segment of the hit is merged, the page then throws `CursorExpiredException`.
+     * The token of a ranked hit can't be used anymore once the segments change at all (flush, merge or deletion),
+     * since the IDF of the keywords and the order of the segments change with them.
+     */
+    public String getSearchAfter() {
+        return segmentName + ":" + docId + ":" + score + ":" + generation;
+    }
+
+    /**
+     * Parses a search-after token, the segment number is unknown (-1).
+     */
+    static SearchHit parseSearchAfter(String token) {
+        String[] fields = token.split(":");
+        Preconditions.checkArgument(fields.length == 4, "invalid search-after token %s", token);
+        try {
+            return new SearchHit(fields[0], -1, Integer.parseInt(fields[1]), Double.parseDouble(fields[2]), Long.parseLong(fields[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid search-after token " + token, e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The page of hits a search cursor returns: the hits after skipping `offset` hits
+ * (or after the hit of a search-after token), at most `limit` of them.
+ * <p>
+ * For deep paging, pass the search-after token of the last hit of a page to get the next page,
+ * the skipped hits don't need to be collected again.
+ */
+public class SearchPage {
+
+    /**
+     * All the hits
+     */
+    public static final SearchPage ALL = new SearchPage(0, Integer.MAX_VALUE, null);
+
+    final int offset;
+    final int limit;
+    final String searchAfter;
+
+    private SearchPage(int offset, int limit, String searchAfter) {
+        Preconditions.checkArgument(offset >= 0 && limit >= 0);
+        this.offset = offset;
+        this.limit = limit;
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * The first `limit` hits
+     */
+    public static SearchPage first(int limit) {
+        return new SearchPage(0, limit, null);
+    }
+
+    /**
+     * `limit` hits after skipping the first `offset` hits
+     */
+    public static SearchPage of(int offset, int limit) {
+        return new SearchPage(offset, limit, null);
+    }
+
+    /**
+     * `limit` hits after the hit whose token is `searchAfter`, see `SearchHit.getSearchAfter()`.
+     */
+    public static SearchPage after(String searchAfter, int limit) {
+        Preconditions.checkNotNull(searchAfter);
+        return new SearchPage(0, limit, searchAfter);
+    }
+
+    /**
+     * Number of hits needed to fill the page (offset included), null if there is no limit
+     */
+    Integer numHits() {
+        if (limit == Integer.MAX_VALUE || (long) offset + limit > Integer.MAX_VALUE) {
+            return null;
+        }
+        return offset + limit;
+    }
+}
@@ -0,0 +1,100 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
+import edu.uci.ics.cs221.storage.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory buffer of the segment being built by `addDocument()`.
+ * <p>
+ * Once the buffer is full it is frozen and written to disk as the segment `name`,
+ * while a fresh buffer keeps accepting documents.
+ */
+class SegmentBuffer {
+
+    /*
+     * Approximate heap cost of the buffer structures: a new keyword row, a new (keyword, document) cell,
+     * a single position within a cell and a buffered document (on top of its text).
+     */
+    private static final int BYTES_PER_KEYWORD = 128;
+    private static final int BYTES_PER_POSTING = 112;
+    private static final int BYTES_PER_POSITION = 20;
+    private static final int BYTES_PER_DOCUMENT = 96;
+
+    /**
+     * Segment name used for the files of this buffer, the segment is part of the index once it is committed
+     */
+    final String name;
+
+    /**
+     * Map keyword with list of document ID
+     */
+    final Table<String, Integer, List<Integer>> keyWordMap;
+
+    /**
+     * Documents of the buffer sorted by document ID, they are bulk loaded into the document store at flush
+     */
+    final SortedMap<Integer, Document> documents;
+
+    /**
+     * Document Counter (for flush)
+     */
+    int documentCounter;
+
+    /**
+     * Total length of keyword (in order to build dictionary on page file)
+     */
+    int totalLengthKeyword;
+
+    /**
+     * Approximate number of bytes held by the buffer (for flush)
+     */
+    long ramBytesUsed;
+
+    SegmentBuffer(String name) {
+        this.name = name;
+        keyWordMap = TreeBasedTable.create();
+        documents = new TreeMap<>();
+        documentCounter = 0;
+        totalLengthKeyword = 0;
+        ramBytesUsed = 0;
+    }
+
+    /**
+     * Adds a document whose text is already processed by the analyzer to the buffer.
+     */
+    void addDocument(Document document, List<String> word) {
+        List<Integer> positions;
+        int wordPosition = 0;
+        // record on hashmap
+        for (String w : word) {
+            if (!keyWordMap.containsRow(w)) {
+                totalLengthKeyword += w.getBytes().length;
+                ramBytesUsed += BYTES_PER_KEYWORD + w.length() * Character.BYTES;
+            }
+            positions = keyWordMap.get(w, documentCounter);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                ramBytesUsed += BYTES_PER_POSTING;
+            }
+            positions.add(wordPosition++);
+            ramBytesUsed += BYTES_PER_POSITION;
+            keyWordMap.put(w, documentCounter, positions);
+        }
+
+        // buffer the document until it's bulk loaded into DocStore
+        documents.put(documentCounter, document);
+        ramBytesUsed += BYTES_PER_DOCUMENT + document.getText().length() * Character.BYTES;
+
+        ++documentCounter;
+    }
+
+    boolean isEmpty() {
+        return documentCounter == 0;
+    }
+}
@@ -23,7 +23,8 @@ public class SegmentInDiskManager {
     private PageFileChannel pfc_posMeta;
     private PageFileChannel pfc_tf;
 
-    ByteBuffer dictByteBuffer; // this byte buffer is used to write keyword and dictionary
+    ByteBuffer keywordPage; // page of the dictionary file currently written by the keyword cursor
+    ByteBuffer slotPage; // page of the dictionary file currently written by the slot cursor
     ByteBuffer byteBuffer; //used for writing postingList
     ByteBuffer refByteBuffer; // this byte buffer is used to read keyword or docId
     ByteBuffer positionByteBuffer; //used for writing/reading positions
@@ -54,6 +55,7 @@ public class SegmentInDiskManager {
 
 
     private enum WriteToWhere {
+        To_Keyword,
         To_Dictionary_File,
         To_Posting_List,
         To_Position_List,
@@ -63,10 +65,19 @@ public class SegmentInDiskManager {
 
 
     /*
-     * Store position of next inserting keyword and Dictionary in dictByteBuffer
+     * Store position (in bytes from the start of the dictionary file) of next inserting keyword and Dictionary
+     * (per instance, a segment could be flushed while other segments are read)
      */
-    private static int nextKeywordPos;
-    private static int nextDictPos;
+    private int nextKeywordPos;
+    private int nextDictPos;
+
+    /*
+     * The page where the keywords end and the dictionary starts is written by both cursors,
+     * it's only written to the file once both of them are done with it
+     */
+    private ByteBuffer boundaryPage;
+    private int boundaryPageNum;
+    private int boundaryReleased;
 
 
     SegmentInDiskManager(String folder, String seg, Compressor compressor) {
@@ -107,31 +118,29 @@ public class SegmentInDiskManager {
     /**
      * ===== ALLOCATION =====
      */
-    public void allocateByteBuffer(int totalLength, int map_size) {
-        dictByteBuffer = ByteBuffer.allocate(Short.BYTES * 2 + totalLength + Integer.BYTES + map_size * SLOT_SIZE);
-    }
-
 
-    // allocate the location where we start storing dictionary at the first four bytes of first page
-    public void allocateKeywordStart(int totalLengthKeyword) {
+    /*
+     * Start writing the dictionary file, the keywords and the dictionary slots are streamed page by page
+     * so only two pages of the dictionary are held in memory.
+     * The location where dictionary starts is stored at the first four bytes of first page,
+     * the number of keyword at the location where dictionary start.
+     */
+    public void allocateDictionary(int totalLengthKeyword, int szKeyword) {
         int totalLengthKeyWord = totalLengthKeyword + Integer.BYTES;
 
-        dictByteBuffer.putShort((short) (totalLengthKeyWord / pfc_dict.PAGE_SIZE));
-        dictByteBuffer.putShort((short) (totalLengthKeyWord % pfc_dict.PAGE_SIZE));
+        boundaryPageNum = totalLengthKeyWord / pfc_dict.PAGE_SIZE;
+        boundaryPage = ByteBuffer.allocate(pfc_dict.PAGE_SIZE);
+        boundaryReleased = 0;
 
         // initialize position
-        nextKeywordPos = Integer.BYTES;
-        nextDictPos = totalLengthKeyWord + Integer.BYTES;
-
-    }
-
-    // allocate number of keyword at the location where dictionary start
-    public void allocateNumberOfKeyWord(int szKeyword) {
-
-        dictByteBuffer.position(nextKeywordPos);
+        nextKeywordPos = 0;
+        nextDictPos = totalLengthKeyWord;
+        keywordPage = dictionaryPage(0);
+        slotPage = dictionaryPage(boundaryPageNum);
 
+        insertShort((short) (totalLengthKeyWord / pfc_dict.PAGE_SIZE), WriteToWhere.To_Keyword);
+        insertShort((short) (totalLengthKeyWord % pfc_dict.PAGE_SIZE), WriteToWhere.To_Keyword);
         insertInteger(szKeyword, WriteToWhere.To_Dictionary_File);
-
     }
 
     /**
@@ -139,13 +148,7 @@ public class SegmentInDiskManager {
      */
 
     public void insertKeyWord(String str) {
-        // point
-        dictByteBuffer.position(nextKeywordPos);
-
         insertString(str);
-
-        // update
-        nextKeywordPos += str.getBytes().length;
     }
 
     /*
@@ -153,8 +156,6 @@ public class SegmentInDiskManager {
      * | keyword length | list page | list offset | list length | position metadata location | number of documents
      */
     public void insertMetaDataSlot(int keyLength, int valueLength, int numberOfDocs) {
-        // point
-        dictByteBuffer.position(nextDictPos);
         insertInteger(keyLength, WriteToWhere.To_Dictionary_File);
         retrieveLocation(keyWordPos, keyLength, keyWordPos);
 
@@ -168,7 +169,6 @@ public class SegmentInDiskManager {
         insertInteger(numberOfDocs, WriteToWhere.To_Dictionary_File);
 
         // update
-        nextDictPos += SLOT_SIZE;
         docIdCount += numberOfDocs;
     }
 
@@ -280,25 +280,47 @@ public class SegmentInDiskManager {
 
     public Map<Integer, List<Integer>> readDocIdList(int pageNum, int listOffset, int docIdLength, int positionSlot) {
         Map<Integer, List<Integer>> docIdList = new TreeMap<>();
-        byte[] bytes = new byte[docIdLength];
-        Location loc = new Location(pageNum, listOffset);
-        if (pointPos.Page != loc.Page) {
-            byteBuffer = pfc_posting.readPage(loc.Page);
-
-            pointPos.Page += 1;
-            pointPos.Offset = loc.Offset;
-            byteBuffer.position(pointPos.Offset);
-
-        }
-        ByteBuffer newBb = readByte(byteBuffer, loc, byteBuffer.remaining(), docIdLength, bytes, WriteToWhere.To_Posting_List);
-        byteBuffer = newBb;
+        byte[] bytes = readPostingBytes(pageNum, listOffset, docIdLength);
         List<Integer> docIds;
         if (isPositional()) {
             docIds = compressor.decode(bytes);
         } else {
             docIds = new NaiveCompressor().decode(bytes);
         }
+        List<List<Integer>> metadata = readPostingMetadata(positionSlot, docIds.size());
         for (int i = 0; i < docIds.size(); i++) {
+            docIdList.put(docIds.get(i), metadata.get(i));
+        }
+        return docIdList;
+    }
+
+    /**
+     * Reads an encoded posting list as it is stored.
+     * Lists can be read in any order, the page in the buffer is only read again when the list is on another page.
+     */
+    public byte[] readPostingBytes(int pageNum, int listOffset, int docIdLength) {
+        byte[] bytes = new byte[docIdLength];
+        Location loc = new Location(pageNum, listOffset);
+        if (pointPos.Page != loc.Page) {
+            byteBuffer = pfc_posting.readPage(loc.Page);
+            pointPos.Page = loc.Page;
+        }
+        byteBuffer = readByte(byteBuffer, loc, pfc_posting.PAGE_SIZE - loc.Offset, docIdLength, bytes, WriteToWhere.To_Posting_List);
+        // the buffer holds the page where the list ends
+        pointPos.Page = loc.Page;
+        return bytes;
+    }
+
+    /**
+     * Reads the position list metadata (if positional) and the term frequency of `numberOfDocs` documents of a posting list
+     *
+     * @return for every document: position list page | position list offset | position list length | term frequency,
+     * or only the term frequency for a non-positional index
+     */
+    public List<List<Integer>> readPostingMetadata(int positionSlot, int numberOfDocs) {
+        List<List<Integer>> metadata = new ArrayList<>();
+        Location loc;
+        for (int i = 0; i < numberOfDocs; i++) {
             List<Integer> posListMetaDataAndTF = new ArrayList<>();
             if (isPositional()) {
                 loc = new Location(positionSlot * POSITION_SLOT_SIZE /
@@ -316,28 +338,30 @@ public class SegmentInDiskManager {
                     pfc_tf.PAGE_SIZE, positionSlot * Integer.BYTES % pfc_tf.PAGE_SIZE);
             posListMetaDataAndTF.add(readInt(tfByteBuffer, loc, WriteToWhere.TO_Tf_File));
 
-            docIdList.put(docIds.get(i), posListMetaDataAndTF);
+            metadata.add(posListMetaDataAndTF);
             positionSlot++;
         }
-        //if positional get the meta data per element
 
-        return docIdList;
+        return metadata;
     }
 
     public List<Integer> readPosList(int pageNum, int listOffset, int posListSize) {
+        return compressor.decode(readPosBytes(pageNum, listOffset, posListSize));
+    }
+
+    /**
+     * Reads an encoded position list as it is stored, lists can be read in any order.
+     */
+    public byte[] readPosBytes(int pageNum, int listOffset, int posListSize) {
         byte[] bytes = new byte[posListSize];
         Location loc = new Location(pageNum, listOffset);
         if (posPointPos.Page != loc.Page) {
             positionByteBuffer = pfc_position.readPage(loc.Page);
-
-            posPointPos.Page += 1;
-            posPointPos.Offset = loc.Offset;
-            positionByteBuffer.position(posPointPos.Offset);
-
+            posPointPos.Page = loc.Page;
         }
-        ByteBuffer newBb = readByte(positionByteBuffer, loc, positionByteBuffer.remaining(), posListSize, bytes, WriteToWhere.To_Position_List);
-        positionByteBuffer = newBb;
-        return compressor.decode(bytes);
+        positionByteBuffer = readByte(positionByteBuffer, loc, pfc_position.PAGE_SIZE - loc.Offset, posListSize, bytes, WriteToWhere.To_Position_List);
+        posPointPos.Page = loc.Page;
+        return bytes;
     }
 
     /**
@@ -394,15 +418,13 @@ public class SegmentInDiskManager {
             if (metaPos.Page != lc.Page) {
                 bb = pfc_posMeta.readPage(lc.Page);
                 pfc_posMeta.readCounter--;
-                metaPos.Page += 1;
-                metaPos.Offset = lc.Offset;
-                posMetaByteBuffer.position(metaPos.Offset);
-
+                metaPos.Page = lc.Page;
             }
             //implement equals location
-            ByteBuffer newBb = readByte(bb, lc, posMetaByteBuffer.remaining(), Short.BYTES, b, writeWhere);
+            ByteBuffer newBb = readByte(bb, lc, pfc_posMeta.PAGE_SIZE - lc.Offset, Short.BYTES, b, writeWhere);
 
             posMetaByteBuffer = newBb;
+            metaPos.Page = lc.Page;
         } else {
             if (pointPos.Page != lc.Page) {
                 bb = pfc_dict.readPage(lc.Page);
@@ -425,15 +447,14 @@ public class SegmentInDiskManager {
             if (metaPos.Page != lc.Page) {
                 bb = pfc_posMeta.readPage(lc.Page);
                 pfc_posMeta.readCounter--;
-                metaPos.Page += 1;
-                metaPos.Offset = lc.Offset;
-                posMetaByteBuffer.position(metaPos.Offset);
+                metaPos.Page = lc.Page;
             }
             //implement equals location
             byte[] b = new byte[Integer.BYTES];
-            ByteBuffer newBb = readByte(bb, lc, posMetaByteBuffer.remaining(), Integer.BYTES, b, writeWhere);
+            ByteBuffer newBb = readByte(bb, lc, pfc_posMeta.PAGE_SIZE - lc.Offset, Integer.BYTES, b, writeWhere);
 
             posMetaByteBuffer = newBb;
+            metaPos.Page = lc.Page;
             int i = ByteBuffer.wrap(b).getInt();
             return i;
         }
@@ -441,15 +462,11 @@ public class SegmentInDiskManager {
         else if(writeWhere == WriteToWhere.TO_Tf_File){
             if (tfPointPos.Page != lc.Page) {
                 bb = pfc_tf.readPage(lc.Page);
-
-                tfPointPos.Page += 1;
-                tfPointPos.Offset = lc.Offset;
-                tfByteBuffer.position(tfPointPos.Offset);
-
+                tfPointPos.Page = lc.Page;
             }
-            //implement equals location
+            //implement equals location (term frequencies are aligned, they never span two pages)
             byte[] b = new byte[Integer.BYTES];
-            ByteBuffer newBb = readByte(bb, lc, tfByteBuffer.remaining(), Integer.BYTES, b, writeWhere);
+            ByteBuffer newBb = readByte(bb, lc, pfc_tf.PAGE_SIZE - lc.Offset, Integer.BYTES, b, writeWhere);
 
             tfByteBuffer = newBb;
             int i = ByteBuffer.wrap(b).getInt();
@@ -517,14 +534,14 @@ public class SegmentInDiskManager {
             // set lc offset
             lc.Offset += subLength;
             newLength -= subLength;
-        }while(newLength > pfc_posting.PAGE_SIZE);
+        }while(newLength > 0);
         return bb;
     }
 
     public void insertString(String str) {
 
         byte[] byteStr = str.getBytes();
-        dictByteBuffer.put(byteStr);
+        insertDictionaryByte(byteStr, WriteToWhere.To_Keyword);
     }
 
     public void insertShort(short sh, WriteToWhere writeWhere) {
@@ -540,7 +557,52 @@ public class SegmentInDiskManager {
                 metaPos.Offset += Short.BYTES;
             }
         } else {
-            dictByteBuffer.putShort(sh);
+            insertDictionaryByte(ByteBuffer.allocate(Short.BYTES).putShort(sh).array(), writeWhere);
+        }
+    }
+
+    /*
+     * Insert bytes at the keyword cursor (To_Keyword) or the dictionary slot cursor,
+     * a page is written to the file as soon as the cursor leaves it.
+     */
+    private void insertDictionaryByte(byte[] bytes, WriteToWhere writeWhere) {
+        boolean toKeyword = writeWhere == WriteToWhere.To_Keyword;
+        int p = 0;
+        while (p < bytes.length) {
+            int pos = toKeyword ? nextKeywordPos : nextDictPos;
+            ByteBuffer page = toKeyword ? keywordPage : slotPage;
+            int offset = pos % pfc_dict.PAGE_SIZE;
+            int length = Math.min(pfc_dict.PAGE_SIZE - offset, bytes.length - p);
+
+            // the boundary page is shared by both cursors, so don't move its position
+            ByteBuffer dup = page.duplicate();
+            dup.position(offset);
+            dup.put(bytes, p, length);
+            p += length;
+            pos += length;
+
+            if (pos % pfc_dict.PAGE_SIZE == 0) {
+                releaseDictionaryPage(pos / pfc_dict.PAGE_SIZE - 1, page);
+                page = dictionaryPage(pos / pfc_dict.PAGE_SIZE);
+            }
+
+            if (toKeyword) {
+                nextKeywordPos = pos;
+                keywordPage = page;
+            } else {
+                nextDictPos = pos;
+                slotPage = page;
+            }
+        }
+    }
+
+    private ByteBuffer dictionaryPage(int pageNum) {
+        return pageNum == boundaryPageNum ? boundaryPage : ByteBuffer.allocate(pfc_dict.PAGE_SIZE);
+    }
+
+    private void releaseDictionaryPage(int pageNum, ByteBuffer page) {
+        if (pageNum != boundaryPageNum || ++boundaryReleased == 2) {
+            pfc_dict.writePage(pageNum, page);
         }
     }
 
@@ -592,7 +654,7 @@ public class SegmentInDiskManager {
                 tfPointPos.Offset += Integer.BYTES;
             }
         } else {
-            dictByteBuffer.putInt(i);
+            insertDictionaryByte(ByteBuffer.allocate(Integer.BYTES).putInt(i).array(), writeWhere);
         }
     }
 
@@ -705,13 +767,36 @@ public class SegmentInDiskManager {
         }
     }
 
-    public void appendAllbyte() {
-        pfc_dict.appendAllBytes(dictByteBuffer);
+    // write the pages of the dictionary file which are still in memory
+    public void finishDictionary() {
+        if (nextKeywordPos % pfc_dict.PAGE_SIZE != 0 || nextKeywordPos / pfc_dict.PAGE_SIZE == boundaryPageNum) {
+            releaseDictionaryPage(nextKeywordPos / pfc_dict.PAGE_SIZE, keywordPage);
+        }
+        if (nextDictPos % pfc_dict.PAGE_SIZE != 0) {
+            releaseDictionaryPage(nextDictPos / pfc_dict.PAGE_SIZE, slotPage);
+        }
+        keywordPage = null;
+        slotPage = null;
+        boundaryPage = null;
+    }
+
+    /**
+     * Throttles the reads and writes of all the files of the segment.
+     */
+    void setRateLimiter(MergeRateLimiter rateLimiter) {
+        pfc_dict.setRateLimiter(rateLimiter);
+        pfc_posting.setRateLimiter(rateLimiter);
+        pfc_tf.setRateLimiter(rateLimiter);
+        if (isPositional()) {
+            pfc_position.setRateLimiter(rateLimiter);
+            pfc_posMeta.setRateLimiter(rateLimiter);
+        }
     }
 
     public void close() {
         pfc_dict.close();
         pfc_posting.close();
+        pfc_tf.close();
         if (isPositional()) {
             pfc_position.close();
             pfc_posMeta.close();
@@ -0,0 +1,71 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A segment committed to the inverted index.
+ * <p>
+ * The files of a segment are named after `name`, which never changes once the segment is written.
+ * The segment number used by the public API is the position of the segment in the index,
+ * it changes when segments before it are merged.
+ */
+class SegmentInfo {
+
+    /**
+     * Suffix of the segment files
+     */
+    final String name;
+
+    /**
+     * Number of documents in the segment, deleted ones included
+     */
+    final int numDocs;
+
+    /**
+     * IDs of the deleted documents, they are dropped when the segment is merged.
+     * A new bit set replaces it on every deletion, a bit set is never modified once it's assigned
+     */
+    volatile BitSet deleted;
+
+    /**
+     * Number of documents containing each keyword of the dictionary, deleted ones included.
+     * It's read once when the segment is written or opened, and never modified
+     */
+    final Map<String, Integer> docFreqs;
+
+    /**
+     * Number of deleted documents containing each keyword, replaced along with `deleted` (guarded by the index)
+     */
+    Map<String, Integer> deletedDocFreqs;
+
+    /**
+     * Whether the segment is being merged, so no other merge picks it (guarded by the index)
+     */
+    boolean merging;
+
+    /**
+     * One reference is held by the index as long as the segment is part of it, plus one by every reader using it.
+     * The files are deleted when the count drops to 0 (guarded by the index)
+     */
+    int refCount;
+
+    SegmentInfo(String name, int numDocs, Map<String, Integer> docFreqs) {
+        this(name, numDocs, new BitSet(), docFreqs);
+    }
+
+    SegmentInfo(String name, int numDocs, BitSet deleted, Map<String, Integer> docFreqs) {
+        this.name = name;
+        this.numDocs = numDocs;
+        this.deleted = deleted;
+        this.docFreqs = docFreqs;
+        deletedDocFreqs = new HashMap<>();
+        merging = false;
+        refCount = 1;
+    }
+
+    int numLiveDocs() {
+        return numDocs - deleted.cardinality();
+    }
+}
@@ -0,0 +1,311 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import edu.uci.ics.cs221.storage.Document;
+import edu.uci.ics.cs221.storage.DocumentStore;
+import edu.uci.ics.cs221.storage.MapdbDocStore;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Merges any number of segments into a new segment in one pass.
+ * <p>
+ * The dictionaries of all the segments are read in keyword order at the same time,
+ * a heap picks the smallest keyword and its merged posting list is written to the new segment right away.
+ * Only the current keyword of every segment (and the posting lists of the keyword being merged) is held in memory.
+ * <p>
+ * Encoded lists are copied without decoding them whenever the compressor supports it:
+ * posting lists are concatenated by `Compressor.concat()`, and position lists are copied byte for byte.
+ * <p>
+ * The segment files are read and written through the rate limiter of the index.
+ * <p>
+ * Deleted documents are dropped, the documents after them are renumbered.
+ * The lists of a segment with deletions are decoded, filtered and encoded again,
+ * and the keywords whose documents are all deleted are dropped from the dictionary.
+ */
+class SegmentMerger {
+
+    private final String folder;
+    private final Compressor compressor;
+    private final MergeRateLimiter rateLimiter;
+
+    SegmentMerger(String folder, Compressor compressor, MergeRateLimiter rateLimiter) {
+        this.folder = folder;
+        this.compressor = compressor;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Reads the dictionary of a segment keyword by keyword
+     */
+    private static class DictionaryCursor {
+        final int source;
+        final SegmentInDiskManager segMgr;
+        String keyword;
+        // page | offset | length | position metadata slot | number of documents
+        List<Integer> dict;
+
+        DictionaryCursor(int source, SegmentInDiskManager segMgr) {
+            this.source = source;
+            this.segMgr = segMgr;
+            segMgr.readInitiate();
+        }
+
+        boolean next() {
+            if (!segMgr.hasKeyWord()) {
+                return false;
+            }
+            dict = new ArrayList<>();
+            keyword = segMgr.readKeywordAndDict(dict);
+            return true;
+        }
+    }
+
+    /**
+     * Merges the segments into segment `target`, the documents of each segment come after the ones of the previous segments.
+     *
+     * @param sources names of the segments, in document order
+     * @param deleted deleted documents of each segment
+     * @param target  name of the merged segment
+     */
+    void merge(List<String> sources, List<BitSet> deleted, String target) {
+        // every file opened by the merge is closed even if it fails, the files of the target are deleted then
+        List<SegmentInDiskManager> segMgrs = new ArrayList<>();
+        List<DocumentStore> docStores = new ArrayList<>();
+        boolean done = false;
+        try {
+            merge(sources, deleted, target, segMgrs, docStores);
+            done = true;
+        } finally {
+            for (DocumentStore docStore : docStores) {
+                docStore.close();
+            }
+            for (SegmentInDiskManager segMgr : segMgrs) {
+                segMgr.close();
+            }
+            if (!done) {
+                for (String prefix : InvertedIndexManager.SEGMENT_FILE_PREFIXES) {
+                    new File(folder + prefix + target).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param segMgrs   the segment files opened are added to it, the caller closes them
+     * @param docStores the document stores opened are added to it, the caller closes them
+     */
+    private void merge(List<String> sources, List<BitSet> deleted, String target,
+                       List<SegmentInDiskManager> segMgrs, List<DocumentStore> docStores) {
+        // open the posting lists and the document stores, documents of segment i are shifted by docBase[i],
+        // and renumbered by docMap[i] (-1 for a deleted document) if the segment has deletions
+        List<SegmentInDiskManager> postings = new ArrayList<>();
+        int[] docBase = new int[sources.size()];
+        int[][] docMap = new int[sources.size()][];
+        int numDocs = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            SegmentInDiskManager segMgr = openSegment(sources.get(i), segMgrs);
+            segMgr.readPostingInitiate();
+            segMgr.readTFInitiate();
+            if (isPositional()) {
+                segMgr.readPositionInitiate();
+                segMgr.readPositionMetaInitiate();
+            }
+            postings.add(segMgr);
+
+            DocumentStore docStore = MapdbDocStore.createOrOpenReadOnly(folder + "DocStore_" + sources.get(i));
+            docStores.add(docStore);
+            docBase[i] = numDocs;
+            if (deleted.get(i).isEmpty()) {
+                numDocs += (int) docStore.size();
+            } else {
+                docMap[i] = new int[(int) docStore.size()];
+                int numLiveDocs = 0;
+                for (int doc = 0; doc < docMap[i].length; doc++) {
+                    docMap[i][doc] = deleted.get(i).get(doc) ? -1 : numLiveDocs++;
+                }
+                numDocs += numLiveDocs;
+            }
+        }
+        Compressor postingCompressor = isPositional() ? compressor : new NaiveCompressor();
+
+        // the dictionary file starts with the total length and the number of the keywords,
+        // so a first pass over the dictionaries counts them, without the keywords whose documents are all deleted
+        int totalLengthKeyword = 0;
+        int numKeywords = 0;
+        PriorityQueue<DictionaryCursor> heap = openDictionaries(sources, segMgrs);
+        while (!heap.isEmpty()) {
+            List<DictionaryCursor> cursors = pollSmallest(heap);
+            if (hasLiveDocs(cursors, postings, docMap, postingCompressor)) {
+                totalLengthKeyword += cursors.get(0).keyword.getBytes().length;
+                ++numKeywords;
+            }
+            advance(heap, cursors);
+        }
+
+        SegmentInDiskManager segMgrMerge = openSegment(target, segMgrs);
+        segMgrMerge.allocateDictionary(totalLengthKeyword, numKeywords);
+
+        heap = openDictionaries(sources, segMgrs);
+        while (!heap.isEmpty()) {
+            List<DictionaryCursor> cursors = pollSmallest(heap);
+            String keyword = cursors.get(0).keyword;
+
+            // cursors are in source order, so the shifted document IDs stay sorted
+            List<byte[]> encodedLists = new ArrayList<>();
+            List<Integer> shifts = new ArrayList<>();
+            List<List<Integer>> metadata = new ArrayList<>();
+            List<byte[]> positions = new ArrayList<>();
+            for (DictionaryCursor cursor : cursors) {
+                SegmentInDiskManager segMgr = postings.get(cursor.source);
+                byte[] encodedList = segMgr.readPostingBytes(cursor.dict.get(0), cursor.dict.get(1), cursor.dict.get(2));
+                shifts.add(docBase[cursor.source]);
+                int[] map = docMap[cursor.source];
+                if (map == null) {
+                    encodedLists.add(encodedList);
+                    for (List<Integer> v : segMgr.readPostingMetadata(cursor.dict.get(3), cursor.dict.get(4))) {
+                        metadata.add(v);
+                        if (isPositional()) {
+                            positions.add(segMgr.readPosBytes(v.get(0), v.get(1), v.get(2)));
+                        }
+                    }
+                    continue;
+                }
+
+                // the files are read in order, so the position lists of deleted documents are read as well
+                List<Integer> docIds = postingCompressor.decode(encodedList);
+                List<Integer> liveDocIds = new ArrayList<>();
+                List<List<Integer>> meta = segMgr.readPostingMetadata(cursor.dict.get(3), cursor.dict.get(4));
+                for (int i = 0; i < docIds.size(); i++) {
+                    List<Integer> v = meta.get(i);
+                    byte[] position = isPositional() ? segMgr.readPosBytes(v.get(0), v.get(1), v.get(2)) : null;
+                    if (map[docIds.get(i)] < 0) {
+                        continue;
+                    }
+                    liveDocIds.add(map[docIds.get(i)]);
+                    metadata.add(v);
+                    if (isPositional()) {
+                        positions.add(position);
+                    }
+                }
+                encodedLists.add(postingCompressor.encode(liveDocIds));
+            }
+
+            // a keyword whose documents are all deleted is dropped, like in the first pass
+            if (!metadata.isEmpty()) {
+                byte[] encodedPostingList = postingCompressor.concat(encodedLists, shifts);
+                segMgrMerge.insertKeyWord(keyword);
+                segMgrMerge.insertMetaDataSlot(keyword.getBytes().length, encodedPostingList.length, metadata.size());
+                segMgrMerge.insertPostingList(encodedPostingList);
+                for (int i = 0; i < metadata.size(); i++) {
+                    // term frequency is the last element
+                    List<Integer> v = metadata.get(i);
+                    segMgrMerge.insertTFList(v.get(v.size() - 1));
+                    if (isPositional()) {
+                        segMgrMerge.insertPositionList(positions.get(i), v.size());
+                    }
+                }
+            }
+
+            advance(heap, cursors);
+        }
+
+        // write the remaining dictionary pages and the last page of the other files
+        segMgrMerge.finishDictionary();
+        segMgrMerge.appendPage();
+        segMgrMerge.close();
+
+        // all the stores iterate in docID order, so the bulk loaded keys stay sorted
+        List<Iterator<Map.Entry<Integer, Document>>> documents = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            int base = docBase[i];
+            int[] map = docMap[i];
+            Iterator<Map.Entry<Integer, Document>> it = docStores.get(i).iterator();
+            if (map != null) {
+                it = Iterators.filter(it, entry -> map[entry.getKey()] >= 0);
+                documents.add(Iterators.transform(it, entry -> Maps.immutableEntry(map[entry.getKey()] + base, entry.getValue())));
+            } else {
+                documents.add(Iterators.transform(it, entry -> Maps.immutableEntry(entry.getKey() + base, entry.getValue())));
+            }
+        }
+        docStores.add(MapdbDocStore.createWithBulkLoad(folder + "DocStore_" + target, Iterators.concat(documents.iterator())));
+    }
+
+    /**
+     * Whether any document of the keyword is left once the deleted documents are dropped (the same filter as the merge).
+     */
+    private boolean hasLiveDocs(List<DictionaryCursor> cursors, List<SegmentInDiskManager> postings, int[][] docMap,
+                                Compressor postingCompressor) {
+        for (DictionaryCursor cursor : cursors) {
+            if (cursor.dict.get(4) == 0) {
+                continue;
+            }
+            int[] map = docMap[cursor.source];
+            if (map == null) {
+                return true;
+            }
+            byte[] encodedList = postings.get(cursor.source).readPostingBytes(cursor.dict.get(0), cursor.dict.get(1), cursor.dict.get(2));
+            for (int docId : postingCompressor.decode(encodedList)) {
+                if (map[docId] >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private PriorityQueue<DictionaryCursor> openDictionaries(List<String> sources, List<SegmentInDiskManager> segMgrs) {
+        PriorityQueue<DictionaryCursor> heap = new PriorityQueue<>(
+                Comparator.comparing((DictionaryCursor cursor) -> cursor.keyword).thenComparingInt(cursor -> cursor.source));
+        for (int i = 0; i < sources.size(); i++) {
+            DictionaryCursor cursor = new DictionaryCursor(i, openSegment(sources.get(i), segMgrs));
+            if (cursor.next()) {
+                heap.add(cursor);
+            } else {
+                cursor.segMgr.close();
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * Removes the cursors pointing at the smallest keyword from the heap, in source order.
+     */
+    private List<DictionaryCursor> pollSmallest(PriorityQueue<DictionaryCursor> heap) {
+        List<DictionaryCursor> cursors = new ArrayList<>();
+        cursors.add(heap.poll());
+        while (!heap.isEmpty() && heap.peek().keyword.equals(cursors.get(0).keyword)) {
+            cursors.add(heap.poll());
+        }
+        return cursors;
+    }
+
+    /**
+     * Moves the cursors to their next keyword and puts them back into the heap, or closes the exhausted ones.
+     */
+    private void advance(PriorityQueue<DictionaryCursor> heap, List<DictionaryCursor> cursors) {
+        for (DictionaryCursor cursor : cursors) {
+            if (cursor.next()) {
+                heap.add(cursor);
+            } else {
+                cursor.segMgr.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the files of a segment and adds them to `segMgrs`, closing them twice is harmless.
+     */
+    private SegmentInDiskManager openSegment(String name, List<SegmentInDiskManager> segMgrs) {
+        SegmentInDiskManager segMgr = new SegmentInDiskManager(folder, name, compressor);
+        segMgrs.add(segMgr);
+        segMgr.setRateLimiter(rateLimiter);
+        return segMgr;
+    }
+
+    private boolean isPositional() {
+        return compressor != null;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index-wide statistics of the keywords: the number of live documents and the number of live documents containing every keyword,
+ * summed over the segments of the index.
+ * <p>
+ * They are updated when a segment is added to or removed from the index (flush, merge), from the document frequencies
+ * kept by the segment, and when documents are deleted, so ranking a query doesn't read any dictionary to compute the IDF
+ * of its keywords, and deleted documents count neither before nor after their segment is merged.
+ * Not thread-safe, it's guarded by the lock of the index like the list of segments.
+ */
+class TermStatistics {
+
+    private final Map<String, Integer> docFreqs = new HashMap<>();
+    private long numDocs = 0;
+
+    void addSegment(SegmentInfo segment) {
+        addLiveDocs(segment, 1);
+    }
+
+    void removeSegment(SegmentInfo segment) {
+        addLiveDocs(segment, -1);
+    }
+
+    /**
+     * Removes documents deleted from a segment of the index.
+     *
+     * @param docFreqs number of the deleted documents containing each keyword
+     */
+    void deleteDocuments(int numDeleted, Map<String, Integer> docFreqs) {
+        numDocs -= numDeleted;
+        for (Map.Entry<String, Integer> entry : docFreqs.entrySet()) {
+            addDocFreq(entry.getKey(), -entry.getValue());
+        }
+    }
+
+    private void addLiveDocs(SegmentInfo segment, int sign) {
+        numDocs += sign * segment.numLiveDocs();
+        for (Map.Entry<String, Integer> entry : segment.docFreqs.entrySet()) {
+            int liveDocFreq = entry.getValue() - segment.deletedDocFreqs.getOrDefault(entry.getKey(), 0);
+            addDocFreq(entry.getKey(), sign * liveDocFreq);
+        }
+    }
+
+    /**
+     * Adds to the document frequency of a keyword, the keywords found nowhere are dropped.
+     */
+    private void addDocFreq(String keyword, int delta) {
+        if (delta != 0) {
+            docFreqs.merge(keyword, delta, (total, d) -> total + d == 0 ? null : total + d);
+        }
+    }
+
+    long numDocs() {
+        return numDocs;
+    }
+
+    int docFreq(String keyword) {
+        return docFreqs.getOrDefault(keyword, 0);
+    }
+
+    /**
+     * Returns the IDF of every keyword, `log10(numDocs / docFreq)`, infinite for a keyword found nowhere.
+     */
+    Map<String, Double> idf(Collection<String> keywords) {
+        Map<String, Double> idf = new HashMap<>();
+        for (String keyword : keywords) {
+            idf.put(keyword, Math.log10(numDocs / (double) docFreq(keyword)));
+        }
+        return idf;
+    }
+}
@@ -0,0 +1,111 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges segments of about the same size, tier by tier.
+ * <p>
+ * A segment with `n` documents is on tier `log(n) / log(segmentsPerTier)`, so once `segmentsPerTier`
+ * consecutive segments are on the same tier they are merged into one segment on the next tier.
+ * Every document is rewritten about once per tier, i.e. a logarithmic number of times, instead of at every merge.
+ * <p>
+ * No merge produces a segment with more than `maxMergedSegmentDocs` documents.
+ */
+public class TieredMergePolicy implements MergePolicy {
+
+    /**
+     * Segments whose tiers are this close to the top tier of the remaining segments are considered on the same tier
+     */
+    private static final double TIER_SPAN = 0.75;
+
+    private final int segmentsPerTier;
+    private final int maxMergedSegmentDocs;
+    private final int floorSegmentDocs;
+
+    /**
+     * Creates a policy merging 10 segments per tier, with no limit on the merged segment size.
+     */
+    public TieredMergePolicy() {
+        this(10, Integer.MAX_VALUE, 1000);
+    }
+
+    /**
+     * @param segmentsPerTier      number of segments on a tier before they are merged (at least 2)
+     * @param maxMergedSegmentDocs maximum number of documents in a merged segment
+     * @param floorSegmentDocs     segments smaller than this are all on the lowest tier,
+     *                             so tiny flushes don't build up a tier of their own
+     */
+    public TieredMergePolicy(int segmentsPerTier, int maxMergedSegmentDocs, int floorSegmentDocs) {
+        Preconditions.checkArgument(segmentsPerTier >= 2);
+        Preconditions.checkArgument(maxMergedSegmentDocs > 0);
+        Preconditions.checkArgument(floorSegmentDocs > 0);
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergedSegmentDocs = maxMergedSegmentDocs;
+        this.floorSegmentDocs = floorSegmentDocs;
+    }
+
+    @Override
+    public List<List<Integer>> findMerges(List<Integer> segmentSizes) {
+        int n = segmentSizes.size();
+        double[] tiers = new double[n];
+        for (int i = 0; i < n; i++) {
+            tiers[i] = Math.log(Math.max(segmentSizes.get(i), floorSegmentDocs)) / Math.log(segmentsPerTier);
+        }
+
+        List<List<Integer>> merges = new ArrayList<>();
+        int start = 0;
+        while (start < n) {
+            // the largest remaining segment sets the top tier, the run of the top tier stops at the first segment below it,
+            // so a small segment between large ones is never merged with them
+            int limit = n;
+            int cut;
+            while (true) {
+                double topTier = tiers[start];
+                for (int i = start + 1; i < limit; i++) {
+                    topTier = Math.max(topTier, tiers[i]);
+                }
+                cut = start;
+                while (cut < limit && tiers[cut] >= topTier - TIER_SPAN) {
+                    cut++;
+                }
+                if (cut > start) {
+                    break;
+                }
+                // the first segment is below the top tier: its tier is set by the segments before the next larger one
+                while (cut < limit && tiers[cut] < topTier - TIER_SPAN) {
+                    cut++;
+                }
+                limit = cut;
+            }
+
+            // merge every run of `segmentsPerTier` segments of this tier which doesn't grow too large
+            int first = start;
+            int end = first + segmentsPerTier;
+            while (end <= cut) {
+                long mergedDocs = 0;
+                for (int i = first; i < end; i++) {
+                    mergedDocs += segmentSizes.get(i);
+                }
+                if (mergedDocs <= maxMergedSegmentDocs) {
+                    List<Integer> merge = new ArrayList<>();
+                    for (int i = first; i < end; i++) {
+                        merge.add(i);
+                    }
+                    merges.add(merge);
+                    first = end;
+                } else {
+                    first++;
+                }
+                end = first + segmentsPerTier;
+            }
+
+            // the next run starts at the first segment below the tier
+            start = cut;
+        }
+        return merges;
+    }
+
+}
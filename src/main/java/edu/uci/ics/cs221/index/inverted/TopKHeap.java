@@ -0,0 +1,152 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The top K documents by descending score, then by segment and document ID, kept in primitive arrays.
+ * <p>
+ * It's a binary heap whose root is the document ranked last, so a document which doesn't beat it is rejected
+ * by a single comparison, without any allocation. A `ScoreSet` is only created for the documents left at the end.
+ */
+class TopKHeap {
+
+    private final int capacity;
+    private int size;
+    private double[] scores;
+    private int[] segments;
+    private int[] docIds;
+
+    /**
+     * @param topK the number of documents kept, all of them if null
+     */
+    TopKHeap(Integer topK) {
+        capacity = topK == null ? Integer.MAX_VALUE : topK;
+        int initialCapacity = Math.max(1, Math.min(capacity, 64));
+        scores = new double[initialCapacity];
+        segments = new int[initialCapacity];
+        docIds = new int[initialCapacity];
+    }
+
+    /**
+     * Compares two documents by ranking: negative if the first one is ranked before the second one.
+     */
+    static int compare(double score1, int segment1, int doc1, double score2, int segment2, int doc2) {
+        int c = Double.compare(score2, score1);
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(segment1, segment2);
+        return c != 0 ? c : Integer.compare(doc1, doc2);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The score a document needs to beat to enter the heap: the score of the document ranked last when the heap is full,
+     * negative infinity otherwise. A document tying it may still enter if it has a smaller segment or document ID.
+     */
+    double threshold() {
+        return size >= capacity && size > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds the document if it's among the top K so far, the document ranked last is dropped if the heap is full.
+     */
+    void offer(int segment, int doc, double score) {
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            if (size == scores.length) {
+                int newLength = (int) Math.min((long) size * 2, capacity);
+                scores = Arrays.copyOf(scores, newLength);
+                segments = Arrays.copyOf(segments, newLength);
+                docIds = Arrays.copyOf(docIds, newLength);
+            }
+            set(size, score, segment, doc);
+            siftUp(size++);
+        } else if (compare(score, segment, doc, scores[0], segments[0], docIds[0]) < 0) {
+            set(0, score, segment, doc);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Adds the documents of another heap.
+     */
+    void addAll(TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.segments[i], other.docIds[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * Returns the documents in ranking order, the heap is empty afterwards.
+     */
+    List<ScoreSet> drainSorted() {
+        ScoreSet[] sorted = new ScoreSet[size];
+        // the root is ranked last, the documents are taken from the last one
+        while (size > 0) {
+            sorted[size - 1] = new ScoreSet(scores[0], new DocID(segments[0], docIds[0]));
+            --size;
+            if (size > 0) {
+                set(0, scores[size], segments[size], docIds[size]);
+                siftDown(0);
+            }
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    /**
+     * Whether the document at i is ranked after the document at j, i.e. belongs closer to the root.
+     */
+    private boolean rankedAfter(int i, int j) {
+        return compare(scores[i], segments[i], docIds[i], scores[j], segments[j], docIds[j]) > 0;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!rankedAfter(i, parent)) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && rankedAfter(child + 1, child)) {
+                ++child;
+            }
+            if (!rankedAfter(child, i)) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void set(int i, double score, int segment, int doc) {
+        scores[i] = score;
+        segments[i] = segment;
+        docIds[i] = doc;
+    }
+
+    private void swap(int i, int j) {
+        double score = scores[i];
+        int segment = segments[i];
+        int doc = docIds[i];
+        set(i, scores[j], segments[j], docIds[j]);
+        set(j, score, segment, doc);
+    }
+}
@@ -28,6 +28,13 @@ public interface DocumentStore extends AutoCloseable {
      */
     Document getDocument(int docID);
 
+    /**
+     * Retrieves a batch of documents from the document store, in one pass over the sorted document IDs.
+     * @param sortedIds document IDs in ascending order (duplicates allowed)
+     * @return the documents corresponding to the IDs, in the same order, null for the IDs which don't exist
+     */
+    Document[] getDocuments(int[] sortedIds);
+
     /**
      * Performs a full table scan on the document store.
      * @return an iterator of < DocID, Document > pairs.
@@ -6,6 +6,7 @@ import org.mapdb.*;
 import java.util.Iterator;
 import java.util.Map;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Maps.immutableEntry;
 
@@ -108,6 +109,49 @@ public class MapdbDocStore implements DocumentStore {
         return new Document(docText);
     }
 
+    /**
+     * When the IDs cover at least 1 / DENSE_BATCH_FACTOR of their range, the range is scanned once
+     * instead of looking up every ID from the root of the tree.
+     */
+    private static final int DENSE_BATCH_FACTOR = 4;
+
+    @Override
+    public Document[] getDocuments(int[] sortedIds) {
+        checkNotNull(sortedIds);
+        Document[] documents = new Document[sortedIds.length];
+        if (sortedIds.length == 0) {
+            return documents;
+        }
+        for (int i = 1; i < sortedIds.length; i++) {
+            checkArgument(sortedIds[i - 1] <= sortedIds[i], "document IDs are not sorted");
+        }
+
+        int first = sortedIds[0];
+        int last = sortedIds[sortedIds.length - 1];
+        if ((long) last - first + 1 > (long) DENSE_BATCH_FACTOR * sortedIds.length) {
+            for (int i = 0; i < sortedIds.length; i++) {
+                documents[i] = getDocument(sortedIds[i]);
+            }
+            return documents;
+        }
+
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : this.map.subMap(first, true, last, true).entrySet()) {
+            int docID = entry.getKey();
+            // the IDs before this entry don't exist
+            while (i < sortedIds.length && sortedIds[i] < docID) {
+                ++i;
+            }
+            while (i < sortedIds.length && sortedIds[i] == docID) {
+                documents[i++] = new Document(entry.getValue());
+            }
+            if (i == sortedIds.length) {
+                break;
+            }
+        }
+        return documents;
+    }
+
     @Override
     public Iterator<Map.Entry<Integer, Document>> iterator() {
         return Iterators.transform(this.map.getEntries().iterator(),
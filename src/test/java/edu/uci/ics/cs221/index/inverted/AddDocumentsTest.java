@@ -0,0 +1,69 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AddDocumentsTest {
+
+    private String path1 = "./index/AddDocumentsTest1/";
+    private String path2 = "./index/AddDocumentsTest2/";
+
+    private List<Document> documents() {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(new Document("cats and dogs are running " + i + " times in the garden " + (i % 3)));
+        }
+        return documents;
+    }
+
+    /* The batch API should produce exactly the same segments as adding the documents one by one,
+     * including the automatic flushes in between. */
+    @Test
+    public void sameSegmentsAsAddDocument() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 6;
+        InvertedIndexManager.DEFAULT_ANALYSIS_THREADS = 4;
+        InvertedIndexManager.DEFAULT_ANALYSIS_QUEUE_SIZE = 2;
+        ComposableAnalyzer analyzer = new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer());
+
+        InvertedIndexManager single = InvertedIndexManager.createOrOpenPositional(path1, analyzer, new DeltaVarLenCompressor());
+        for (Document document : documents()) {
+            single.addDocument(document);
+        }
+        single.flush();
+
+        InvertedIndexManager batch = InvertedIndexManager.createOrOpenPositional(path2, analyzer, new DeltaVarLenCompressor());
+        batch.addDocuments(documents());
+        batch.flush();
+
+        assertEquals(4, batch.getNumSegments());
+        assertEquals(single.getNumSegments(), batch.getNumSegments());
+        for (int i = 0; i < single.getNumSegments(); i++) {
+            assertEquals(single.getIndexSegmentPositional(i), batch.getIndexSegmentPositional(i));
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_ANALYSIS_THREADS = Runtime.getRuntime().availableProcessors();
+        InvertedIndexManager.DEFAULT_ANALYSIS_QUEUE_SIZE = 256;
+
+        for (String path : new String[]{path1, path2}) {
+            File dir = new File(path);
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackgroundFlushTest {
+
+    private String path = "./index/BackgroundFlushTest/";
+    private InvertedIndexManager ii;
+
+    @Before
+    public void setUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 2;
+        InvertedIndexManager.DEFAULT_MAX_INFLIGHT_FLUSHES = 2;
+        ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+    }
+
+    private int count(Iterator<Document> it) {
+        int counter = 0;
+        while (it.hasNext()) {
+            it.next();
+            counter++;
+        }
+        return counter;
+    }
+
+    /* Full buffers are flushed in the background, flush() waits for all of them
+     * and the segments are committed in the order the documents were added. */
+    @Test
+    public void segmentsCommittedInOrder() {
+        for (int i = 0; i < 9; i++) {
+            ii.addDocument(new Document("document number " + i));
+        }
+        ii.flush();
+
+        assertEquals(5, ii.getNumSegments());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Arrays.asList(0), ii.getIndexSegment(i).getInvertedLists().get(Integer.toString(2 * i)));
+            assertEquals(Arrays.asList(1), ii.getIndexSegment(i).getInvertedLists().get(Integer.toString(2 * i + 1)));
+        }
+        assertEquals(1, ii.getNumDocuments(4));
+        assertEquals(9, count(ii.searchQuery("document")));
+        assertEquals(9, count(ii.documentIterator()));
+    }
+
+    /* The background flusher also triggers the automatic merge. */
+    @Test
+    public void mergeAfterBackgroundFlush() {
+        for (int i = 0; i < 16; i++) {
+            ii.addDocument(new Document("document number " + i));
+        }
+        ii.flush();
+
+        assertEquals(4, ii.getNumSegments());
+        assertEquals(16, count(ii.searchOrQuery(Arrays.asList("document", "number"))));
+    }
+
+    @After
+    public void cleanUp() {
+        ii.close();
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MAX_INFLIGHT_FLUSHES = 0;
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
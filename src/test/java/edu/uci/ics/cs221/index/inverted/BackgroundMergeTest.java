@@ -0,0 +1,114 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+
+public class BackgroundMergeTest {
+
+    private String path = "./index/BackgroundMergeTest/";
+    private InvertedIndexManager ii;
+
+    @Before
+    public void setUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1;
+        InvertedIndexManager.DEFAULT_MERGE_THREADS = 2;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new TieredMergePolicy(2, Integer.MAX_VALUE, 1);
+        ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+    }
+
+    private int count(Iterator<?> it) {
+        int counter = 0;
+        while (it.hasNext()) {
+            it.next();
+            counter++;
+        }
+        return counter;
+    }
+
+    /* Searches see every committed document while segments are merged in the background. */
+    @Test
+    public void searchWhileMerging() {
+        for (int i = 0; i < 40; i++) {
+            ii.addDocument(new Document("document " + i));
+            assertEquals(i + 1, count(ii.searchQuery("document")));
+        }
+        ii.waitForMerges();
+
+        int numDocs = 0;
+        for (int i = 0; i < ii.getNumSegments(); i++) {
+            numDocs += ii.getNumDocuments(i);
+        }
+        assertEquals(40, numDocs);
+        Iterator<Document> it = ii.documentIterator();
+        for (int i = 0; i < 40; i++) {
+            assertEquals("document " + i, it.next().getText());
+        }
+    }
+
+    /* The files of merged segments are deleted once the merges are done. */
+    @Test
+    public void mergedFilesDeleted() {
+        for (int i = 0; i < 16; i++) {
+            ii.addDocument(new Document("document " + i));
+        }
+        ii.waitForMerges();
+
+        int numSegments = ii.getNumSegments();
+        assertEquals(numSegments, new File(path).listFiles((dir, name) -> name.startsWith("segment_")).length);
+        assertEquals(numSegments, new File(path).listFiles((dir, name) -> name.startsWith("DocStore_")).length);
+    }
+
+    /* A reopened index has the segments committed before, in the same order. */
+    @Test
+    public void reopen() {
+        for (int i = 0; i < 5; i++) {
+            ii.addDocument(new Document("document " + i));
+        }
+        ii.waitForMerges();
+
+        InvertedIndexManager reopened = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        assertEquals(ii.getNumSegments(), reopened.getNumSegments());
+        Iterator<Document> it = reopened.documentIterator();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("document " + i, it.next().getText());
+        }
+        reopened.close();
+    }
+
+    /* Closing the index waits for the merges running in the background, no file changes afterwards. */
+    @Test
+    public void closeWaitsForMerges() {
+        for (int i = 0; i < 16; i++) {
+            ii.addDocument(new Document("document " + i));
+        }
+        ii.close();
+
+        int numSegments = ii.getNumSegments();
+        assertEquals(numSegments, new File(path).listFiles((dir, name) -> name.startsWith("segment_")).length);
+        assertEquals(numSegments, new File(path).listFiles((dir, name) -> name.startsWith("DocStore_")).length);
+    }
+
+    @After
+    public void cleanUp() {
+        ii.close();
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MERGE_THREADS = 0;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new PairwiseMergePolicy();
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
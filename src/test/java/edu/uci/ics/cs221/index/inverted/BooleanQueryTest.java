@@ -0,0 +1,146 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class BooleanQueryTest {
+
+    private String path = "./index/BooleanQueryTest/";
+    private String[] words = {"apple", "banana", "cherry", "grape", "lemon", "mango", "melon"};
+
+    private List<String> texts(Iterator<Document> it) {
+        List<String> texts = new ArrayList<>();
+        it.forEachRemaining(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    /**
+     * Returns a random query, and adds the predicate of the documents (as word lists) it matches to `expected`.
+     */
+    private Query randomQuery(Random random, int depth, List<Predicate<List<String>>> expected) {
+        int type = depth == 0 ? random.nextInt(2) : random.nextInt(5);
+        if (type == 0) {
+            String word = words[random.nextInt(words.length)];
+            expected.add(doc -> doc.contains(word));
+            return Query.term(word);
+        }
+        if (type == 1) {
+            String first = words[random.nextInt(words.length)];
+            String second = words[random.nextInt(words.length)];
+            expected.add(doc -> {
+                for (int i = 0; i + 1 < doc.size(); i++) {
+                    if (doc.get(i).equals(first) && doc.get(i + 1).equals(second)) {
+                        return true;
+                    }
+                }
+                return false;
+            });
+            return Query.phrase(first, second);
+        }
+        if (type == 2) {
+            List<Predicate<List<String>>> clause = new ArrayList<>();
+            Query query = Query.not(randomQuery(random, depth - 1, clause));
+            expected.add(clause.get(0).negate());
+            return query;
+        }
+
+        List<Query> clauses = new ArrayList<>();
+        List<Predicate<List<String>>> predicates = new ArrayList<>();
+        int numClauses = 2 + random.nextInt(2);
+        for (int i = 0; i < numClauses; i++) {
+            clauses.add(randomQuery(random, depth - 1, predicates));
+        }
+        if (type == 3) {
+            expected.add(doc -> predicates.stream().allMatch(p -> p.test(doc)));
+            return Query.and(clauses);
+        }
+        expected.add(doc -> predicates.stream().anyMatch(p -> p.test(doc)));
+        return Query.or(clauses);
+    }
+
+    /* Nested queries match the same documents as evaluating them on the words of every document. */
+    @Test
+    public void sameAsBruteForce() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 15;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpenPositional(path,
+                new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()), new DeltaVarLenCompressor());
+        Random random = new Random(46);
+        List<List<String>> documents = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            List<String> document = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                document.add(words[random.nextInt(words.length)]);
+            }
+            documents.add(document);
+            ii.addDocument(new Document(String.join(" ", document)));
+        }
+        ii.flush();
+        ii.deleteDocuments("melon");
+
+        for (int round = 0; round < 200; round++) {
+            List<Predicate<List<String>>> expected = new ArrayList<>();
+            Query query = randomQuery(random, 3, expected);
+            List<String> expectedTexts = new ArrayList<>();
+            for (List<String> document : documents) {
+                if (!document.contains("melon") && expected.get(0).test(document)) {
+                    expectedTexts.add(String.join(" ", document));
+                }
+            }
+            assertEquals(query.toString(), expectedTexts, texts(ii.searchBooleanQuery(query)));
+        }
+    }
+
+    /* Clauses of stop words are ignored, and a phrase needs a positional index. */
+    @Test(expected = UnsupportedOperationException.class)
+    public void phraseNeedsPositions() {
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        ii.addDocument(new Document("apple pie"));
+        ii.addDocument(new Document("banana pie"));
+        ii.flush();
+        assertEquals(Arrays.asList("apple pie"), texts(ii.searchBooleanQuery(Query.and(Query.term("the"), Query.term("apple")))));
+        assertEquals(Arrays.asList("banana pie"), texts(ii.searchBooleanQuery(Query.and(Query.term("pie"), Query.not(Query.term("apple"))))));
+
+        ii.searchBooleanQuery(Query.phrase("apple", "pie"));
+    }
+
+    /* Queries are equal by structure, not by their printed form. */
+    @Test
+    public void structuralEquality() {
+        Query query = Query.and(Query.term("apple"), Query.or(Query.phrase("ice", "cream"), Query.not(Query.term("pie"))));
+        Query same = Query.and(Query.term("apple"), Query.or(Query.phrase("ice", "cream"), Query.not(Query.term("pie"))));
+        assertEquals(query, same);
+        assertEquals(query.hashCode(), same.hashCode());
+
+        // both print as AND(apple, pie)
+        Query nested = Query.and(Query.term("apple, pie"));
+        Query flat = Query.and(Query.term("apple"), Query.term("pie"));
+        assertEquals(nested.toString(), flat.toString());
+        assertNotEquals(nested, flat);
+        assertNotEquals(Query.and(Query.term("apple"), Query.term("pie")), Query.or(Query.term("apple"), Query.term("pie")));
+        assertNotEquals(Query.term("apple"), Query.phrase("apple"));
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+
+        File dir = new File(path);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
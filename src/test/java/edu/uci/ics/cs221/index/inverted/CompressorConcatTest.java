@@ -0,0 +1,36 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CompressorConcatTest {
+
+    private List<byte[]> lists(Compressor compressor) {
+        return Arrays.asList(
+                compressor.encode(Arrays.asList(0, 3, 200)),
+                compressor.encode(Arrays.asList()),
+                compressor.encode(Arrays.asList(1, 130, 20000)),
+                compressor.encode(Arrays.asList(5)));
+    }
+
+    private List<Integer> shifts = Arrays.asList(0, 201, 201, 100000);
+
+    private List<Integer> expected = Arrays.asList(0, 3, 200, 202, 331, 20201, 100005);
+
+    /* Concatenating the encoded bytes gives the same bytes as encoding the shifted integers. */
+    @Test
+    public void deltaVarLen() {
+        Compressor compressor = new DeltaVarLenCompressor();
+        assertArrayEquals(compressor.encode(expected), compressor.concat(lists(compressor), shifts));
+    }
+
+    @Test
+    public void naive() {
+        Compressor compressor = new NaiveCompressor();
+        assertArrayEquals(compressor.encode(expected), compressor.concat(lists(compressor), shifts));
+    }
+}
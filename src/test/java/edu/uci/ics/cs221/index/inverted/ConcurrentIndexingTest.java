@@ -0,0 +1,99 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentIndexingTest {
+
+    private String path = "./index/ConcurrentIndexingTest/";
+
+    private void addConcurrently(InvertedIndexManager ii, int numThreads, int docsPerThread) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < docsPerThread; i++) {
+                    ii.addDocument(new Document("thread" + thread + " doc" + i + " shared text"));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        ii.flush();
+    }
+
+    /* Documents added by several threads at once all end up in the index exactly once,
+     * and no segment is larger than the flush threshold. */
+    @Test
+    public void allDocumentsIndexed() throws InterruptedException {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 7;
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 1000;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+
+        addConcurrently(ii, 4, 50);
+
+        Set<String> texts = new HashSet<>();
+        Iterator<Document> it = ii.documentIterator();
+        while (it.hasNext()) {
+            assertTrue(texts.add(it.next().getText()));
+        }
+        assertEquals(200, texts.size());
+
+        int numDocs = 0;
+        for (int i = 0; i < ii.getNumSegments(); i++) {
+            assertTrue(ii.getNumDocuments(i) <= 7);
+            numDocs += ii.getNumDocuments(i);
+        }
+        assertEquals(200, numDocs);
+
+        Iterator<Document> result = ii.searchQuery("shared");
+        int counter = 0;
+        while (result.hasNext()) {
+            result.next();
+            counter++;
+        }
+        assertEquals(200, counter);
+    }
+
+    /* Concurrent flushes also go through the automatic merge. */
+    @Test
+    public void concurrentFlushAndMerge() throws InterruptedException {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 3;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+
+        addConcurrently(ii, 4, 30);
+
+        assertTrue(ii.getNumSegments() < InvertedIndexManager.DEFAULT_MERGE_THRESHOLD);
+        Iterator<Document> result = ii.searchAndQuery(Arrays.asList("shared", "text"));
+        int counter = 0;
+        while (result.hasNext()) {
+            result.next();
+            counter++;
+        }
+        assertEquals(120, counter);
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 8;
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
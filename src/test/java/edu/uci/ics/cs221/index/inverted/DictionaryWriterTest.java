@@ -0,0 +1,62 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class DictionaryWriterTest {
+
+    private String path = "./index/DictionaryWriterTest/";
+
+    private String word(int i, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append((char) ('a' + (i + sb.length()) % 26));
+        }
+        return sb.toString();
+    }
+
+    /* The dictionary spans many pages, the keywords and the slots share a page at different offsets:
+     * every keyword and posting list should be read back from the flushed and merged segments. */
+    @Test
+    public void keywordsAcrossPages() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 50;
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 1000;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, text -> Arrays.asList(text.split(" ")));
+
+        Map<String, List<Integer>> expected = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 7; j++) {
+                String w = word(i * 7 + j, 10 + (i * 7 + j) * 13 % 97);
+                text.append(w).append(' ');
+                expected.computeIfAbsent(w, k -> new ArrayList<>()).add(i);
+            }
+            ii.addDocument(new Document(text.toString()));
+        }
+        ii.flush();
+        assertEquals(2, ii.getNumSegments());
+
+        ii.mergeAllSegments();
+        assertEquals(1, ii.getNumSegments());
+        Map<String, List<Integer>> invertedLists = ii.getIndexSegment(0).getInvertedLists();
+        assertEquals(expected, new TreeMap<>(invertedLists));
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 8;
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
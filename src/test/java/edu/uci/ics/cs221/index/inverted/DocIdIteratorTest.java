@@ -0,0 +1,67 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class DocIdIteratorTest {
+
+    private List<Integer> randomList(Random random, int size, int maxDocId) {
+        TreeSet<Integer> docIds = new TreeSet<>();
+        while (docIds.size() < size) {
+            docIds.add(random.nextInt(maxDocId));
+        }
+        return new ArrayList<>(docIds);
+    }
+
+    private List<Integer> collect(DocIdIterator it) {
+        List<Integer> docIds = new ArrayList<>();
+        for (int doc = it.nextDoc(); doc != DocIdIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+            docIds.add(doc);
+        }
+        return docIds;
+    }
+
+    /* Galloping advance lands on the first document >= target. */
+    @Test
+    public void advance() {
+        PostingIterator it = new PostingIterator(Arrays.asList(1, 3, 5, 7, 9, 11, 13, 15, 17, 19, 21));
+        assertEquals(-1, it.docId());
+        assertEquals(1, it.advance(0));
+        assertEquals(3, it.advance(2));
+        assertEquals(5, it.advance(5));
+        assertEquals(17, it.advance(16));
+        assertEquals(19, it.nextDoc());
+        assertEquals(21, it.advance(21));
+        assertEquals(DocIdIterator.NO_MORE_DOCS, it.advance(22));
+        assertEquals(DocIdIterator.NO_MORE_DOCS, it.nextDoc());
+    }
+
+    /* AND and OR give the intersection and the union of the lists. */
+    @Test
+    public void sameAsSetOperations() {
+        Random random = new Random(221);
+        for (int round = 0; round < 50; round++) {
+            List<List<Integer>> lists = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                lists.add(randomList(random, 1 + random.nextInt(i == 0 ? 10 : 500), 1000));
+            }
+
+            Set<Integer> intersection = new TreeSet<>(lists.get(0));
+            Set<Integer> union = new TreeSet<>();
+            List<DocIdIterator> and = new ArrayList<>();
+            List<DocIdIterator> or = new ArrayList<>();
+            for (List<Integer> list : lists) {
+                intersection.retainAll(list);
+                union.addAll(list);
+                and.add(new PostingIterator(list));
+                or.add(new PostingIterator(list));
+            }
+
+            assertEquals(new ArrayList<>(intersection), collect(new ConjunctionIterator(and)));
+            assertEquals(new ArrayList<>(union), collect(new DisjunctionIterator(or)));
+        }
+    }
+}
@@ -88,6 +88,8 @@ public class InvertedIndexDeletionTest {
     //test when the keyword is not found
     @Test
     public void Test2() {
+        // the 8 flushed segments must not be merged automatically (the default threshold is 8)
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 9;
         setUp();
 
         invertedList.deleteDocuments("elephant");
@@ -204,6 +206,59 @@ public class InvertedIndexDeletionTest {
         Assert.assertEquals(4, numOfDocs);
     }
 
+    /* Searches skip deleted documents before they are merged away, also after the index is reopened. */
+    @Test
+    public void searchSkipsDeleted() {
+        setUp();
+        invertedList.deleteDocuments("dog");
+
+        int counter = 0;
+        Iterator<Document> docs = invertedList.searchQuery("cat");
+        while (docs.hasNext()) {
+            Assert.assertFalse(docs.next().getText().toLowerCase().contains("dog"));
+            counter++;
+        }
+        Assert.assertEquals(4, counter);
+        Assert.assertFalse(invertedList.searchOrQuery(Arrays.asList("dog", "fish")).next().getText().toLowerCase().contains("dog"));
+
+        InvertedIndexManager reopened = InvertedIndexManager.createOrOpen(path, analyzer);
+        counter = 0;
+        docs = reopened.searchQuery("cat");
+        while (docs.hasNext()) {
+            docs.next();
+            counter++;
+        }
+        Assert.assertEquals(4, counter);
+    }
+
+    /* Merging drops the postings, positions and documents of deleted documents, and renumbers the rest. */
+    @Test
+    public void mergeDropsDeleted() {
+        invertedList = InvertedIndexManager.createOrOpenPositional(path, analyzer, new DeltaVarLenCompressor());
+        invertedList.addDocument(new Document("cat dog"));
+        invertedList.addDocument(new Document("dog toy"));
+        invertedList.flush();
+        invertedList.addDocument(new Document("toy cat"));
+        invertedList.addDocument(new Document("fish dog cat"));
+        invertedList.flush();
+
+        invertedList.deleteDocuments("toy");
+        Assert.assertFalse(invertedList.searchPhraseQuery(Arrays.asList("toy", "cat")).hasNext());
+        invertedList.mergeAllSegments();
+
+        Assert.assertEquals(1, invertedList.getNumSegments());
+        PositionalIndexSegmentForTest segment = invertedList.getIndexSegmentPositional(0);
+        Map<Integer, Document> documents = new HashMap<>();
+        documents.put(0, new Document("cat dog"));
+        documents.put(1, new Document("fish dog cat"));
+        Assert.assertEquals(documents, segment.getDocuments());
+        Assert.assertEquals(Arrays.asList(0, 1), segment.getInvertedLists().get("dog"));
+        Assert.assertEquals(Arrays.asList(0, 1), segment.getInvertedLists().get("cat"));
+        Assert.assertEquals(Arrays.asList(1), segment.getInvertedLists().get("fish"));
+        Assert.assertFalse(segment.getInvertedLists().containsKey("toi"));
+        Assert.assertEquals(Arrays.asList(2), segment.getPositions().get("cat", 1));
+    }
+
     /*@Test public void test() {
         File directory = new File(path);
         if (!directory.exists()) {
@@ -255,6 +310,7 @@ public class InvertedIndexDeletionTest {
     @After
 
     public void deleteTmp() {
+        InvertedIndexManager.DEFAULT_MERGE_THRESHOLD = 8;
         PageFileChannel.resetCounters();
         File f = new File(path);
         File[] files = f.listFiles();
@@ -0,0 +1,107 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaxScoreScorerTest {
+
+    private static final Comparator<double[]> RANKING = Comparator.comparingDouble((double[] hit) -> -hit[1])
+            .thenComparingDouble(hit -> hit[0]);
+
+    private int numScored;
+
+    /**
+     * Returns the top K (doc, score) pairs of the range, every document is scored when K is null.
+     */
+    private List<double[]> topK(MaxScoreScorer scorer, int start, int end, BitSet deleted, Integer k) {
+        TreeSet<double[]> top = new TreeSet<>(RANKING);
+        numScored = 0;
+        scorer.score(start, end, deleted, () -> k != null && top.size() >= k ? top.last()[1] : Double.NEGATIVE_INFINITY,
+                (doc, score) -> {
+                    ++numScored;
+                    top.add(new double[]{doc, score});
+                    if (k != null && top.size() > k) {
+                        top.pollLast();
+                    }
+                });
+        return new ArrayList<>(top);
+    }
+
+    private static int[] randomList(Random random, int numDocs, double density) {
+        return IntStream.range(0, numDocs).filter(doc -> random.nextDouble() < density).toArray();
+    }
+
+    private static int[] ones(int length) {
+        int[] tfs = new int[length];
+        Arrays.fill(tfs, 1);
+        return tfs;
+    }
+
+    private static int[] randomTfs(Random random, int length) {
+        return random.ints(length, 1, 5).toArray();
+    }
+
+    /* The pruned top K is the top K of scoring every document. */
+    @Test
+    public void sameAsExhaustive() {
+        Random random = new Random(47);
+        for (int round = 0; round < 200; round++) {
+            int numDocs = 1 + random.nextInt(300);
+            int numTerms = 1 + random.nextInt(4);
+            int[][] docIds = new int[numTerms][];
+            int[][] tfs = new int[numTerms][];
+            double[] idf = new double[numTerms];
+            double[] queryWeights = new double[numTerms];
+            for (int t = 0; t < numTerms; t++) {
+                docIds[t] = randomList(random, numDocs, random.nextDouble());
+                tfs[t] = randomTfs(random, docIds[t].length);
+                idf[t] = random.nextDouble() * 2;
+                queryWeights[t] = idf[t] * (1 + random.nextInt(3));
+            }
+            BitSet deleted = new BitSet();
+            for (int doc = 0; doc < numDocs; doc++) {
+                if (random.nextInt(10) == 0) {
+                    deleted.set(doc);
+                }
+            }
+            MaxScoreScorer scorer = new MaxScoreScorer(docIds, tfs, idf, queryWeights);
+            int start = random.nextInt(numDocs);
+            int end = start + random.nextInt(numDocs - start + 1);
+            int k = 1 + random.nextInt(10);
+
+            List<double[]> expected = topK(scorer, start, end, deleted, null);
+            expected = expected.subList(0, Math.min(k, expected.size()));
+            List<double[]> actual = topK(scorer, start, end, deleted, k);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i)[0], actual.get(i)[0], 0.0);
+                assertEquals(expected.get(i)[1], actual.get(i)[1], 0.0);
+            }
+        }
+    }
+
+    /* The documents with only common, light terms can't beat the documents with the rare, heavy term, they aren't scored. */
+    @Test
+    public void skipsLightDocuments() {
+        int numDocs = 1000;
+        int[] rare = {10, 20, 900};
+        int[] common = IntStream.range(0, numDocs).toArray();
+        int[] common2 = IntStream.range(0, numDocs).filter(doc -> doc % 2 == 0).toArray();
+        MaxScoreScorer scorer = new MaxScoreScorer(new int[][]{common, rare, common2},
+                new int[][]{ones(common.length), ones(rare.length), ones(common2.length)},
+                new double[]{0.1, 3, 0.2}, new double[]{0.1, 3, 0.2});
+
+        List<double[]> top = topK(scorer, 0, numDocs, new BitSet(), 2);
+        assertEquals(10, top.get(0)[0], 0.0);
+        assertEquals(20, top.get(1)[0], 0.0);
+        assertTrue(numScored < 50);
+
+        topK(scorer, 0, numDocs, new BitSet(), null);
+        assertEquals(numDocs, numScored);
+    }
+}
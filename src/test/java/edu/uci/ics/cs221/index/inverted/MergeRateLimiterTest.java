@@ -0,0 +1,49 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MergeRateLimiterTest {
+
+    /* The limit doubles for every `backlog` segments waiting above the backlog. */
+    @Test
+    public void relaxedWhenBehind() {
+        AtomicInteger pending = new AtomicInteger(0);
+        MergeRateLimiter limiter = new MergeRateLimiter(1000, 4, pending::get);
+
+        assertEquals(1000, limiter.getBytesPerSec(), 0);
+        pending.set(4);
+        assertEquals(1000, limiter.getBytesPerSec(), 0);
+        pending.set(5);
+        assertEquals(2000, limiter.getBytesPerSec(), 0);
+        pending.set(9);
+        assertEquals(4000, limiter.getBytesPerSec(), 0);
+    }
+
+    /* 10 pauses of 100KB at 1MB/s take about a second. */
+    @Test
+    public void throttles() {
+        MergeRateLimiter limiter = new MergeRateLimiter(1_000_000, 4, () -> 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limiter.pause(100_000);
+        }
+        assertTrue(System.nanoTime() - start >= 850_000_000L);
+    }
+
+    @Test
+    public void unlimited() {
+        MergeRateLimiter limiter = new MergeRateLimiter(0, 4, () -> 100);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limiter.pause(100_000_000);
+        }
+        assertTrue(System.nanoTime() - start < 100_000_000L);
+    }
+}
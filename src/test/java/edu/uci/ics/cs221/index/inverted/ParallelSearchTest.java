@@ -0,0 +1,102 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelSearchTest {
+
+    private String path1 = "./index/ParallelSearchTest1/";
+    private String path2 = "./index/ParallelSearchTest2/";
+    private List<InvertedIndexManager> opened = new ArrayList<>();
+
+    private InvertedIndexManager build(String path) {
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpenPositional(path,
+                new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()), new DeltaVarLenCompressor());
+        Random random = new Random(39);
+        String[] words = {"apple", "banana", "cherry", "grape", "lemon", "mango"};
+        for (int i = 0; i < 70; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 6; j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            ii.addDocument(new Document(text.toString().trim()));
+        }
+        ii.flush();
+        opened.add(ii);
+        return ii;
+    }
+
+    private <T> List<T> toList(Iterator<T> it) {
+        List<T> list = new ArrayList<>();
+        it.forEachRemaining(list::add);
+        return list;
+    }
+
+    private List<String> texts(Iterator<Document> it) {
+        List<String> texts = new ArrayList<>();
+        it.forEachRemaining(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    /* Searching the segments concurrently returns the same results in the same order. */
+    @Test
+    public void sameAsSerial() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 10;
+        InvertedIndexManager serial = build(path1);
+        InvertedIndexManager.DEFAULT_SEARCH_THREADS = 4;
+        InvertedIndexManager parallel = build(path2);
+        assertEquals(7, parallel.getNumSegments());
+
+        assertSameResults(serial, parallel);
+    }
+
+    /* Searching the docID ranges of a single segment concurrently returns the same results in the same order. */
+    @Test
+    public void rangesSameAsSerial() {
+        InvertedIndexManager serial = build(path1);
+        InvertedIndexManager.DEFAULT_SEARCH_THREADS = 4;
+        InvertedIndexManager.DEFAULT_SEARCH_RANGE_DOCS = 10;
+        InvertedIndexManager parallel = build(path2);
+        assertEquals(1, parallel.getNumSegments());
+
+        assertSameResults(serial, parallel);
+    }
+
+    private void assertSameResults(InvertedIndexManager serial, InvertedIndexManager parallel) {
+        assertEquals(texts(serial.searchAndQuery(Arrays.asList("apple", "mango"))), texts(parallel.searchAndQuery(Arrays.asList("apple", "mango"))));
+        assertEquals(texts(serial.searchOrQuery(Arrays.asList("cherry", "lemon"))), texts(parallel.searchOrQuery(Arrays.asList("cherry", "lemon"))));
+        assertEquals(texts(serial.searchPhraseQuery(Arrays.asList("grape", "banana"))), texts(parallel.searchPhraseQuery(Arrays.asList("grape", "banana"))));
+
+        List<Pair<Document, Double>> expected = toList(serial.searchTfIdf(Arrays.asList("apple", "lemon", "lemon"), 10));
+        List<Pair<Document, Double>> actual = toList(parallel.searchTfIdf(Arrays.asList("apple", "lemon", "lemon"), 10));
+        assertEquals(10, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getRight(), actual.get(i).getRight(), 1e-9);
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        opened.forEach(InvertedIndexManager::close);
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_SEARCH_THREADS = 0;
+        InvertedIndexManager.DEFAULT_SEARCH_RANGE_DOCS = 100000;
+
+        for (String path : new String[]{path1, path2}) {
+            File dir = new File(path);
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.index.inverted.PostingCache.DecodedPostingList;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhraseMatcherTest {
+
+    /**
+     * positions.get(keyword).get(doc) are the positions of the keyword in the document
+     */
+    private Map<String, Map<Integer, int[]>> positions = new HashMap<>();
+    private List<String> reads = new ArrayList<>();
+
+    private void add(String keyword, int doc, int... keywordPositions) {
+        positions.computeIfAbsent(keyword, k -> new TreeMap<>()).put(doc, keywordPositions);
+    }
+
+    private List<Integer> match(BitSet deleted, String... phrase) {
+        Map<String, DecodedPostingList> postingLists = new HashMap<>();
+        for (Map.Entry<String, Map<Integer, int[]>> entry : positions.entrySet()) {
+            int[] docIds = entry.getValue().keySet().stream().mapToInt(Integer::intValue).toArray();
+            postingLists.put(entry.getKey(), new DecodedPostingList(docIds, new int[docIds.length], null));
+        }
+        PhraseMatcher matcher = new PhraseMatcher(Arrays.asList(phrase), postingLists, (keyword, index) -> {
+            int doc = postingLists.get(keyword).docIds[index];
+            reads.add(keyword + doc);
+            return positions.get(keyword).get(doc);
+        });
+        return matcher.match(deleted);
+    }
+
+    /* Keywords must be at consecutive positions, a repeated keyword at every one of its offsets. */
+    @Test
+    public void consecutivePositions() {
+        add("a", 0, 0, 5);
+        add("b", 0, 1);
+        add("a", 1, 3, 7);
+        add("b", 1, 4);
+        add("a", 2, 0, 2);
+        add("b", 2, 1);
+        add("a", 3, 1);
+        add("b", 3, 0, 2);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), match(new BitSet(), "a", "b"));
+        assertEquals(Arrays.asList(2), match(new BitSet(), "a", "b", "a"));
+        assertEquals(Arrays.asList(3), match(new BitSet(), "b", "a", "b"));
+
+        BitSet deleted = new BitSet();
+        deleted.set(1);
+        assertEquals(Arrays.asList(0, 2, 3), match(deleted, "a", "b"));
+    }
+
+    /* The position lists of the frequent keyword are only read for documents where the rare keywords fit. */
+    @Test
+    public void rarestFirst() {
+        for (int doc = 0; doc < 10; doc++) {
+            add("the", doc, 0, 4);
+        }
+        add("quick", 3, 5);
+        add("quick", 7, 1);
+        add("fox", 3, 9);
+        add("fox", 7, 2);
+
+        assertEquals(Arrays.asList(7), match(new BitSet(), "the", "quick", "fox"));
+        assertEquals(Arrays.asList("quick3", "fox3", "quick7", "fox7", "the7"), reads);
+    }
+}
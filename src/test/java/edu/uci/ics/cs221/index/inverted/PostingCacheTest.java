@@ -0,0 +1,104 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PostingCacheTest {
+
+    private String path1 = "./index/PostingCacheTest1/";
+    private String path2 = "./index/PostingCacheTest2/";
+
+    private InvertedIndexManager build(String path) {
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpenPositional(path,
+                new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()), new DeltaVarLenCompressor());
+        Random random = new Random(43);
+        String[] words = {"apple", "banana", "cherry", "grape", "lemon", "mango"};
+        for (int i = 0; i < 60; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 6; j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            ii.addDocument(new Document(text.toString().trim()));
+        }
+        ii.flush();
+        return ii;
+    }
+
+    private List<String> texts(Iterator<Document> it) {
+        List<String> texts = new ArrayList<>();
+        it.forEachRemaining(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    private List<Double> scores(Iterator<Pair<Document, Double>> it) {
+        List<Double> scores = new ArrayList<>();
+        it.forEachRemaining(pair -> scores.add(pair.getRight()));
+        return scores;
+    }
+
+    /* Lists are evicted by size, and dropped with their segment. */
+    @Test
+    public void evictAndInvalidate() {
+        PostingCache cache = new PostingCache(1000);
+        PostingCache.DecodedPostingList list = new PostingCache.DecodedPostingList(new int[5], new int[5], null);
+        cache.put("0", "a", list);
+        cache.put("1", "a", list);
+        assertEquals(list, cache.get("0", "a"));
+        cache.invalidateSegment("0");
+        assertNull(cache.get("0", "a"));
+        assertEquals(list, cache.get("1", "a"));
+
+        cache.put("1", "b", new PostingCache.DecodedPostingList(new int[200], new int[200], null));
+        assertNull(cache.get("1", "b"));
+    }
+
+    /* Every query type returns the same results with the cache, and repeated queries don't read the posting lists again. */
+    @Test
+    public void sameResultsFewerReads() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 20;
+        InvertedIndexManager uncached = build(path1);
+        InvertedIndexManager.DEFAULT_POSTING_CACHE_BYTES = 1 << 20;
+        InvertedIndexManager cached = build(path2);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(texts(uncached.searchAndQuery(Arrays.asList("apple", "mango"))), texts(cached.searchAndQuery(Arrays.asList("apple", "mango"))));
+            assertEquals(texts(uncached.searchOrQuery(Arrays.asList("cherry", "lemon"))), texts(cached.searchOrQuery(Arrays.asList("cherry", "lemon"))));
+            assertEquals(texts(uncached.searchPhraseQuery(Arrays.asList("grape", "banana"))), texts(cached.searchPhraseQuery(Arrays.asList("grape", "banana"))));
+            assertEquals(scores(uncached.searchTfIdf(Arrays.asList("apple", "lemon"), null)), scores(cached.searchTfIdf(Arrays.asList("apple", "lemon"), null)));
+        }
+
+        PageFileChannel.resetCounters();
+        uncached.searchTfIdf(Arrays.asList("apple", "lemon"), null);
+        int uncachedReads = PageFileChannel.readCounter;
+        PageFileChannel.resetCounters();
+        cached.searchTfIdf(Arrays.asList("apple", "lemon"), null);
+        assertTrue(PageFileChannel.readCounter < uncachedReads);
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_POSTING_CACHE_BYTES = 0;
+
+        for (String path : new String[]{path1, path2}) {
+            File dir = new File(path);
+            if (dir.exists()) {
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.index.inverted.PostingCache.DecodedPostingList;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProximityQueryTest {
+
+    private String path = "./index/ProximityQueryTest/";
+
+    /**
+     * positions.get(term).get(doc) are the positions of the term in the document
+     */
+    private Map<String, Map<Integer, int[]>> positions = new HashMap<>();
+
+    private void add(String term, int doc, int... termPositions) {
+        positions.computeIfAbsent(term, k -> new TreeMap<>()).put(doc, termPositions);
+    }
+
+    private List<Integer> match(int slop, boolean ordered, String... terms) {
+        Map<String, DecodedPostingList> postingLists = new HashMap<>();
+        for (Map.Entry<String, Map<Integer, int[]>> entry : positions.entrySet()) {
+            int[] docIds = entry.getValue().keySet().stream().mapToInt(Integer::intValue).toArray();
+            postingLists.put(entry.getKey(), new DecodedPostingList(docIds, new int[docIds.length], null));
+        }
+        return new ProximityMatcher(Arrays.asList(terms), slop, ordered, postingLists,
+                (term, index) -> positions.get(term).get(postingLists.get(term).docIds[index])).match(new BitSet());
+    }
+
+    private List<String> texts(Iterator<Document> it) {
+        List<String> texts = new ArrayList<>();
+        it.forEachRemaining(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    /* The terms must be within the window, and in order when ordered. */
+    @Test
+    public void window() {
+        add("a", 0, 0);
+        add("b", 0, 1);
+        add("a", 1, 4);
+        add("b", 1, 1);
+        add("a", 2, 0, 9);
+        add("b", 2, 5, 12);
+
+        assertEquals(Arrays.asList(0), match(0, true, "a", "b"));
+        assertEquals(Arrays.asList(0), match(0, false, "a", "b"));
+        assertEquals(Arrays.asList(0), match(1, false, "a", "b"));
+        assertEquals(Arrays.asList(0), match(1, true, "a", "b"));
+        assertEquals(Arrays.asList(0, 1, 2), match(2, false, "a", "b"));
+        assertEquals(Arrays.asList(0, 2), match(2, true, "a", "b"));
+        assertEquals(Arrays.asList(1), match(2, true, "b", "a"));
+    }
+
+    /* A term repeated in the query needs as many distinct positions. */
+    @Test
+    public void repeatedTerm() {
+        add("a", 0, 3);
+        add("b", 0, 4);
+        add("a", 1, 3, 6);
+        add("b", 1, 4);
+
+        assertEquals(Arrays.asList(1), match(1, false, "a", "a", "b"));
+        assertEquals(Collections.emptyList(), match(0, true, "a", "b", "a"));
+        assertEquals(Arrays.asList(1), match(1, true, "a", "b", "a"));
+        assertEquals(Collections.emptyList(), match(0, true, "a", "a", "b"));
+    }
+
+    /* Proximity queries on an index match positions of the analyzed tokens. */
+    @Test
+    public void searchIndex() {
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpenPositional(path,
+                new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()), new DeltaVarLenCompressor());
+        ii.addDocument(new Document("quick brown fox"));
+        ii.addDocument(new Document("fox quick"));
+        ii.addDocument(new Document("quick red lazy brown dog fox"));
+        ii.flush();
+        ii.addDocument(new Document("fox jumps quick"));
+        ii.flush();
+
+        assertEquals(Arrays.asList("quick brown fox", "fox quick", "fox jumps quick"),
+                texts(ii.searchProximityQuery(Arrays.asList("quick", "fox"), 1, false)));
+        assertEquals(Arrays.asList("quick brown fox"), texts(ii.searchProximityQuery(Arrays.asList("quick", "fox"), 1, true)));
+        assertEquals(Arrays.asList("quick brown fox", "fox quick", "quick red lazy brown dog fox", "fox jumps quick"),
+                texts(ii.searchProximityQuery(Arrays.asList("quick", "fox"), 4, false)));
+        assertEquals(Arrays.asList("quick brown fox", "quick red lazy brown dog fox"),
+                texts(ii.searchProximityQuery(Arrays.asList("quick", "fox"), 4, true)));
+    }
+
+    @After
+    public void cleanUp() {
+        File dir = new File(path);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
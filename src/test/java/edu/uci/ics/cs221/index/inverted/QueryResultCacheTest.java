@@ -0,0 +1,129 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import com.google.common.collect.Iterators;
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QueryResultCacheTest {
+
+    private String path = "./index/QueryResultCacheTest/";
+
+    private int count(Iterator<?> it) {
+        int counter = 0;
+        while (it.hasNext()) {
+            it.next();
+            counter++;
+        }
+        return counter;
+    }
+
+    /* The least recently used result is evicted, and a new generation drops all the results. */
+    @Test
+    public void evictAndInvalidate() {
+        QueryResultCache cache = new QueryResultCache(2);
+        List<SearchHit> hits = Collections.singletonList(new SearchHit("0", 0, 1, 0, 0));
+        cache.put(Arrays.asList("a"), 0, hits);
+        cache.put(Arrays.asList("b"), 0, hits);
+        cache.get(Arrays.asList("a"), 0);
+        cache.put(Arrays.asList("c"), 0, hits);
+        assertEquals(hits, cache.get(Arrays.asList("a"), 0));
+        assertNull(cache.get(Arrays.asList("b"), 0));
+
+        cache.invalidate(1);
+        assertEquals(0, cache.size());
+        cache.put(Arrays.asList("a"), 0, hits);
+        assertNull(cache.get(Arrays.asList("a"), 1));
+    }
+
+    /* A result is cached as soon as its last hit is returned, even if the page ends with it. */
+    @Test
+    public void cachedWithLastHit() {
+        List<SearchHit> hits = Arrays.asList(new SearchHit("0", 0, 1, 0, 0), new SearchHit("0", 0, 2, 0, 0));
+        List<List<SearchHit>> cached = new ArrayList<>();
+        Iterator<SearchHit> page = Iterators.limit(InvertedIndexManager.cacheWhenExhausted(hits.iterator(), cached::add), 2);
+        assertEquals(2, count(page));
+        assertEquals(Arrays.asList(hits), cached);
+
+        cached.clear();
+        page = Iterators.limit(InvertedIndexManager.cacheWhenExhausted(hits.iterator(), cached::add), 1);
+        assertEquals(1, count(page));
+        assertEquals(0, cached.size());
+
+        assertEquals(0, count(InvertedIndexManager.cacheWhenExhausted(Collections.emptyIterator(), cached::add)));
+        assertEquals(Arrays.asList(Collections.emptyList()), cached);
+    }
+
+    /* Flushes, merges and deletions are seen by repeated queries. */
+    @Test
+    public void segmentChangesInvalidate() {
+        InvertedIndexManager.DEFAULT_QUERY_CACHE_SIZE = 10;
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 2;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+
+        ii.addDocument(new Document("red apple"));
+        ii.addDocument(new Document("green apple"));
+        assertEquals(2, count(ii.searchQuery("apple")));
+        assertEquals(2, count(ii.searchQuery("apple")));
+        assertEquals(1, count(ii.searchTfIdf(Arrays.asList("apple"), 1)));
+
+        ii.addDocument(new Document("yellow apple"));
+        ii.addDocument(new Document("red cherry"));
+        assertEquals(3, count(ii.searchQuery("apple")));
+        assertEquals(3, count(ii.searchOrQuery(Arrays.asList("red", "yellow"))));
+
+        ii.mergeAllSegments();
+        assertEquals(3, count(ii.searchQuery("apple")));
+
+        ii.deleteDocuments("red");
+        assertEquals(2, count(ii.searchQuery("apple")));
+        assertEquals(1, count(ii.searchOrQuery(Arrays.asList("red", "yellow"))));
+        assertEquals(2, count(ii.searchTfIdf(Arrays.asList("apple"), null)));
+    }
+
+    /* A page stopping before the last hit doesn't cache a partial result, the whole result is cached once read to the end. */
+    @Test
+    public void pagesBeforeFullResult() {
+        InvertedIndexManager.DEFAULT_QUERY_CACHE_SIZE = 10;
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 2;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        for (int i = 0; i < 6; i++) {
+            ii.addDocument(new Document("apple " + i));
+        }
+
+        try (SearchCursor cursor = ii.searchQuery("apple", SearchPage.first(3))) {
+            assertEquals(3, count(cursor));
+        }
+        try (SearchCursor cursor = ii.searchQuery("apple", SearchPage.of(2, 10))) {
+            assertEquals(4, count(cursor));
+        }
+        assertEquals(6, count(ii.searchQuery("apple")));
+        assertEquals(6, count(ii.searchQuery("apple")));
+        try (SearchCursor cursor = ii.searchQuery("apple", SearchPage.of(4, 1))) {
+            assertEquals(1, count(cursor));
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_QUERY_CACHE_SIZE = 0;
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+
+        File dir = new File(path);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
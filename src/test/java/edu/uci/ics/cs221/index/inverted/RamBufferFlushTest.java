@@ -0,0 +1,88 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class RamBufferFlushTest {
+
+    private String path = "./index/RamBufferFlushTest/";
+    private InvertedIndexManager ii;
+
+    @Before
+    public void setUp() {
+        ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+    }
+
+    /* A tiny RAM budget should flush every single document into its own segment,
+     * even though the document count threshold is never reached. */
+    @Test
+    public void flushByRamBudget() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_RAM_BUFFER_SIZE = 1;
+
+        ii.addDocument(new Document("rate roll"));
+        ii.addDocument(new Document("rate sky"));
+        ii.addDocument(new Document("feed bled"));
+
+        assertEquals(3, ii.getNumSegments());
+
+        Map<String, List<Integer>> expectedPostingList = new HashMap<>();
+        expectedPostingList.put("rate", Arrays.asList(0));
+        expectedPostingList.put("sky", Arrays.asList(0));
+        assertEquals(expectedPostingList, ii.getIndexSegment(1).getInvertedLists());
+    }
+
+    /* The document count threshold is still a cap when the RAM budget is not reached. */
+    @Test
+    public void documentCountStillCaps() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 2;
+
+        ii.addDocument(new Document("rate roll"));
+        ii.addDocument(new Document("rate sky"));
+        ii.addDocument(new Document("feed bled"));
+
+        assertEquals(1, ii.getNumSegments());
+    }
+
+    /* With both limits disabled, documents stay in the buffer until flush() is called. */
+    @Test
+    public void noAutoFlushWhenDisabled() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 0;
+        InvertedIndexManager.DEFAULT_RAM_BUFFER_SIZE = 0;
+
+        for (int i = 0; i < 50; i++) {
+            ii.addDocument(new Document("rate roll sky " + i));
+        }
+        assertEquals(0, ii.getNumSegments());
+
+        ii.flush();
+        assertEquals(1, ii.getNumSegments());
+        assertEquals(50, ii.getNumDocuments(0));
+    }
+
+    @After
+    public void cleanUp() {
+        ii.close();
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_RAM_BUFFER_SIZE = 64L * 1024 * 1024;
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,202 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SearchCursorTest {
+
+    private String path = "./index/SearchCursorTest/";
+    private InvertedIndexManager ii;
+
+    @Before
+    public void setUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 10;
+        ii = InvertedIndexManager.createOrOpenPositional(path,
+                new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()), new DeltaVarLenCompressor());
+        Random random = new Random(41);
+        String[] words = {"apple", "banana", "cherry", "grape", "lemon", "mango"};
+        for (int i = 0; i < 50; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            ii.addDocument(new Document(text.toString().trim()));
+        }
+        ii.flush();
+    }
+
+    private List<String> texts(SearchCursor cursor) {
+        List<String> texts = new ArrayList<>();
+        try (SearchCursor c = cursor) {
+            while (c.hasNext()) {
+                texts.add(c.getDocument(c.next()).getText());
+            }
+        }
+        return texts;
+    }
+
+    private List<String> texts(Iterator<Document> it) {
+        List<String> texts = new ArrayList<>();
+        it.forEachRemaining(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    /* Offset and limit return a slice of all the hits. */
+    @Test
+    public void offsetAndLimit() {
+        List<String> all = texts(ii.searchOrQuery(Arrays.asList("apple", "mango")));
+        assertEquals(all.subList(0, 7), texts(ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.first(7))));
+        assertEquals(all.subList(12, 20), texts(ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.of(12, 8))));
+        assertEquals(0, texts(ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.of(all.size(), 5))).size());
+    }
+
+    /* Paging with search-after tokens returns all the hits once, for boolean and ranked queries. */
+    @Test
+    public void searchAfterPages() {
+        List<String> all = texts(ii.searchPhraseQuery(Arrays.asList("banana", "cherry")));
+        List<String> pages = new ArrayList<>();
+        SearchPage page = SearchPage.first(3);
+        while (true) {
+            List<SearchHit> hits = new ArrayList<>();
+            try (SearchCursor cursor = ii.searchPhraseQuery(Arrays.asList("banana", "cherry"), page)) {
+                while (cursor.hasNext()) {
+                    SearchHit hit = cursor.next();
+                    hits.add(hit);
+                    pages.add(cursor.getDocument(hit).getText());
+                }
+            }
+            if (hits.isEmpty()) {
+                break;
+            }
+            page = SearchPage.after(hits.get(hits.size() - 1).getSearchAfter(), 3);
+        }
+        assertEquals(all, pages);
+
+        List<Double> allScores = new ArrayList<>();
+        ii.searchTfIdf(Arrays.asList("grape", "lemon", "lemon"), null).forEachRemaining(pair -> allScores.add(pair.getRight()));
+        List<Double> pageScores = new ArrayList<>();
+        page = SearchPage.first(4);
+        while (true) {
+            List<SearchHit> hits = new ArrayList<>();
+            try (SearchCursor cursor = ii.searchTfIdfPage(Arrays.asList("grape", "lemon", "lemon"), page)) {
+                cursor.forEachRemaining(hits::add);
+            }
+            if (hits.isEmpty()) {
+                break;
+            }
+            hits.forEach(hit -> pageScores.add(hit.getScore()));
+            page = SearchPage.after(hits.get(hits.size() - 1).getSearchAfter(), 4);
+        }
+        assertEquals(allScores, pageScores);
+    }
+
+    /* Documents read in a batch are the documents of the hits, in the order of the hits. */
+    @Test
+    public void batchDocuments() {
+        try (SearchCursor cursor = ii.searchTfIdfPage(Arrays.asList("cherry", "mango"), SearchPage.ALL)) {
+            List<SearchHit> hits = new ArrayList<>();
+            cursor.forEachRemaining(hits::add);
+            List<Document> expected = new ArrayList<>();
+            hits.forEach(hit -> expected.add(cursor.getDocument(hit)));
+            assertEquals(expected, cursor.getDocuments(hits));
+
+            Collections.shuffle(hits, new Random(50));
+            List<Document> shuffled = new ArrayList<>();
+            hits.forEach(hit -> shuffled.add(cursor.getDocument(hit)));
+            assertEquals(shuffled, cursor.getDocuments(hits));
+        }
+    }
+
+    /* A search-after token whose segment was merged between two pages expires, the query starts again from the first page. */
+    @Test
+    public void mergeBetweenPages() {
+        // an even number of segments, so they can all be merged
+        for (int i = 0; i < 10; i++) {
+            ii.addDocument(new Document("apple kiwi"));
+        }
+        ii.flush();
+
+        List<SearchHit> hits = new ArrayList<>();
+        try (SearchCursor cursor = ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.first(3))) {
+            cursor.forEachRemaining(hits::add);
+        }
+        assertEquals(3, hits.size());
+        String token = hits.get(2).getSearchAfter();
+
+        ii.mergeAllSegments();
+        try {
+            ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.after(token, 3)).close();
+            fail();
+        } catch (CursorExpiredException e) {
+            assertEquals(token, e.getSearchAfter());
+        }
+        try {
+            ii.searchTfIdfPage(Arrays.asList("apple"), SearchPage.after(token, 3)).close();
+            fail();
+        } catch (CursorExpiredException e) {
+            assertEquals(token, e.getSearchAfter());
+        }
+
+        List<String> all = texts(ii.searchOrQuery(Arrays.asList("apple", "mango")));
+        assertEquals(all.subList(0, 3), texts(ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.first(3))));
+    }
+
+    /* A ranked search-after token expires with any change of the segments, a boolean one only when its segment is merged. */
+    @Test
+    public void changeBetweenRankedPages() {
+        List<SearchHit> ranked = new ArrayList<>();
+        try (SearchCursor cursor = ii.searchTfIdfPage(Arrays.asList("apple", "lemon"), SearchPage.first(3))) {
+            cursor.forEachRemaining(ranked::add);
+        }
+        List<SearchHit> hits = new ArrayList<>();
+        try (SearchCursor cursor = ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.first(3))) {
+            cursor.forEachRemaining(hits::add);
+        }
+
+        ii.addDocument(new Document("apple lemon"));
+        ii.flush();
+        try {
+            ii.searchTfIdfPage(Arrays.asList("apple", "lemon"), SearchPage.after(ranked.get(2).getSearchAfter(), 3)).close();
+            fail();
+        } catch (CursorExpiredException e) {
+            assertEquals(ranked.get(2).getSearchAfter(), e.getSearchAfter());
+        }
+        List<String> all = texts(ii.searchOrQuery(Arrays.asList("apple", "mango")));
+        assertEquals(all.subList(3, 6), texts(ii.searchOrQuery(Arrays.asList("apple", "mango"), SearchPage.after(hits.get(2).getSearchAfter(), 3))));
+
+        ranked.clear();
+        try (SearchCursor cursor = ii.searchTfIdfPage(Arrays.asList("apple", "lemon"), SearchPage.first(3))) {
+            cursor.forEachRemaining(ranked::add);
+        }
+        ii.deleteDocuments("mango");
+        try {
+            ii.searchTfIdfPage(Arrays.asList("apple", "lemon"), SearchPage.after(ranked.get(2).getSearchAfter(), 3)).close();
+            fail();
+        } catch (CursorExpiredException e) {
+            assertEquals(ranked.get(2).getSearchAfter(), e.getSearchAfter());
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        ii.close();
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+
+        File dir = new File(path);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,58 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentMergerTest {
+
+    private String path1 = "./index/SegmentMergerTest1/";
+    private String path2 = "./index/SegmentMergerTest2/";
+
+    private Document document(int i) {
+        return new Document("the quick brown fox " + i + " jumps over the lazy dog " + (i % 4) + " fox");
+    }
+
+    /* Merging 3 segments at a time gives the same segment as flushing all the documents at once. */
+    @Test
+    public void sameSegmentAsSingleFlush() {
+        ComposableAnalyzer analyzer = new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer());
+
+        InvertedIndexManager single = InvertedIndexManager.createOrOpenPositional(path1, analyzer, new DeltaVarLenCompressor());
+        for (int i = 0; i < 9; i++) {
+            single.addDocument(document(i));
+        }
+        single.flush();
+
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new TieredMergePolicy(3, Integer.MAX_VALUE, 1);
+        InvertedIndexManager merged = InvertedIndexManager.createOrOpenPositional(path2, analyzer, new DeltaVarLenCompressor());
+        for (int i = 0; i < 9; i++) {
+            merged.addDocument(document(i));
+        }
+
+        assertEquals(1, merged.getNumSegments());
+        assertEquals(single.getIndexSegmentPositional(0), merged.getIndexSegmentPositional(0));
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new PairwiseMergePolicy();
+
+        for (String path : new String[]{path1, path2}) {
+            File dir = new File(path);
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class TermStatisticsTest {
+
+    private String path = "./index/TermStatisticsTest/";
+    private String singlePath = "./index/TermStatisticsTest_single/";
+    private String[] words = {"apple", "banana", "cherry", "grape", "lemon"};
+
+    private List<String> ranking(InvertedIndexManager ii, List<String> keywords) {
+        List<String> ranking = new ArrayList<>();
+        ii.searchTfIdf(keywords, null).forEachRemaining(pair -> ranking.add(pair.getLeft().getText() + " " + pair.getRight()));
+        return ranking;
+    }
+
+    /* Segments added and removed update the document frequencies, the keywords found nowhere are dropped. */
+    @Test
+    public void addAndRemove() {
+        TermStatistics statistics = new TermStatistics();
+        SegmentInfo first = new SegmentInfo("0", 3, docFreqs("a", 2, "b", 1));
+        SegmentInfo second = new SegmentInfo("1", 2, docFreqs("a", 1, "c", 2));
+        statistics.addSegment(first);
+        statistics.addSegment(second);
+        assertEquals(5, statistics.numDocs());
+        assertEquals(3, statistics.docFreq("a"));
+        assertEquals(2, statistics.docFreq("c"));
+
+        statistics.removeSegment(first);
+        assertEquals(2, statistics.numDocs());
+        assertEquals(1, statistics.docFreq("a"));
+        assertEquals(0, statistics.docFreq("b"));
+        assertEquals(Math.log10(2.0), statistics.idf(Arrays.asList("a")).get("a"), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, statistics.idf(Arrays.asList("b")).get("b"), 0.0);
+    }
+
+    private static Map<String, Integer> docFreqs(String k1, int v1, String k2, int v2) {
+        Map<String, Integer> map = new HashMap<>();
+        map.put(k1, v1);
+        map.put(k2, v2);
+        return map;
+    }
+
+    /* Ranking over flushed, merged and reopened segments scores like a single segment of the same documents. */
+    @Test
+    public void sameAsSingleSegment() {
+        Random random = new Random(49);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            texts.add(text.toString().trim());
+        }
+
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 5;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        texts.forEach(text -> ii.addDocument(new Document(text)));
+        ii.flush();
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager single = InvertedIndexManager.createOrOpen(singlePath, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        texts.forEach(text -> single.addDocument(new Document(text)));
+        single.flush();
+
+        List<List<String>> queries = Arrays.asList(Arrays.asList("apple"), Arrays.asList("banana", "cherry"),
+                Arrays.asList("grape", "lemon", "apple"), Arrays.asList("kiwi", "apple"));
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(ii, query));
+        }
+
+        if (ii.getNumSegments() % 2 == 0) {
+            ii.mergeAllSegments();
+        }
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(ii, query));
+        }
+
+        InvertedIndexManager reopened = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(reopened, query));
+        }
+        int docFreq = 0;
+        for (int i = 0; i < reopened.getNumSegments(); i++) {
+            docFreq += reopened.getDocumentFrequency(i, "appl");
+        }
+        assertEquals(single.getDocumentFrequency(0, "appl"), docFreq);
+    }
+
+    /* Deleted documents leave the statistics right away: the ranking is the same before and after their segments are merged. */
+    @Test
+    public void deletedDocumentsNotCounted() {
+        Random random = new Random(51);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            texts.add(text.toString().trim());
+        }
+
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 5;
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        texts.forEach(text -> ii.addDocument(new Document(text)));
+        ii.flush();
+        ii.deleteDocuments("grape");
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager single = InvertedIndexManager.createOrOpen(singlePath, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        texts.stream().filter(text -> !text.contains("grape")).forEach(text -> single.addDocument(new Document(text)));
+        single.flush();
+
+        List<List<String>> queries = Arrays.asList(Arrays.asList("apple"), Arrays.asList("banana", "cherry"), Arrays.asList("lemon", "apple"));
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(ii, query));
+        }
+
+        InvertedIndexManager reopened = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(reopened, query));
+        }
+
+        if (ii.getNumSegments() % 2 == 0) {
+            ii.mergeAllSegments();
+        }
+        for (List<String> query : queries) {
+            assertEquals(ranking(single, query), ranking(ii, query));
+        }
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+
+        for (String folder : Arrays.asList(path, singlePath)) {
+            File dir = new File(folder);
+            if (dir.exists()) {
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import edu.uci.ics.cs221.analysis.ComposableAnalyzer;
+import edu.uci.ics.cs221.analysis.PorterStemmer;
+import edu.uci.ics.cs221.analysis.PunctuationTokenizer;
+import edu.uci.ics.cs221.storage.Document;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+
+public class TieredMergePolicyTest {
+
+    private String path = "./index/TieredMergePolicyTest/";
+
+    /* Small segments on the same tier are merged, a larger segment on a higher tier is left alone. */
+    @Test
+    public void mergeSameTier() {
+        MergePolicy policy = new TieredMergePolicy(4, Integer.MAX_VALUE, 10);
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2, 3)), policy.findMerges(Arrays.asList(10, 10, 10, 10)));
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3, 4)), policy.findMerges(Arrays.asList(40, 10, 10, 10, 10)));
+        assertEquals(Collections.emptyList(), policy.findMerges(Arrays.asList(40, 10, 10, 10)));
+    }
+
+    /* A small segment between large segments cuts the run of the large ones, it's never merged with them. */
+    @Test
+    public void smallSegmentBetweenLarge() {
+        MergePolicy policy = new TieredMergePolicy(2, Integer.MAX_VALUE, 1);
+        assertEquals(Collections.emptyList(), policy.findMerges(Arrays.asList(40, 10, 40)));
+        assertEquals(Arrays.asList(Arrays.asList(2, 3)), policy.findMerges(Arrays.asList(40, 10, 40, 40)));
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), policy.findMerges(Arrays.asList(40, 10, 10, 40)));
+    }
+
+    /* Segments below the floor size are all on the lowest tier. */
+    @Test
+    public void floorSegmentSize() {
+        MergePolicy policy = new TieredMergePolicy(3, Integer.MAX_VALUE, 100);
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2)), policy.findMerges(Arrays.asList(1, 60, 7)));
+    }
+
+    /* No merge produces a segment larger than the maximum merged segment size. */
+    @Test
+    public void maxMergedSegmentSize() {
+        MergePolicy policy = new TieredMergePolicy(2, 30, 10);
+        assertEquals(Collections.emptyList(), policy.findMerges(Arrays.asList(20, 20)));
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), policy.findMerges(Arrays.asList(20, 15, 15)));
+    }
+
+    /* With 2 segments per tier the index behaves like a binary counter of flushed segments,
+     * the documents keep their order across merges. */
+    @Test
+    public void mergeWhileIndexing() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new TieredMergePolicy(2, Integer.MAX_VALUE, 1);
+        InvertedIndexManager ii = InvertedIndexManager.createOrOpen(path, new ComposableAnalyzer(new PunctuationTokenizer(), new PorterStemmer()));
+
+        for (int i = 0; i < 11; i++) {
+            ii.addDocument(new Document("document " + i));
+        }
+
+        assertEquals(3, ii.getNumSegments());
+        assertEquals(8, ii.getNumDocuments(0));
+        assertEquals(2, ii.getNumDocuments(1));
+        assertEquals(1, ii.getNumDocuments(2));
+
+        Iterator<Document> it = ii.documentIterator();
+        for (int i = 0; i < 11; i++) {
+            assertEquals("document " + i, it.next().getText());
+        }
+        assertEquals(Arrays.asList(5), ii.getIndexSegment(0).getInvertedLists().get("5"));
+    }
+
+    @After
+    public void cleanUp() {
+        InvertedIndexManager.DEFAULT_FLUSH_THRESHOLD = 1000;
+        InvertedIndexManager.DEFAULT_MERGE_POLICY = new PairwiseMergePolicy();
+
+        File dir = new File(path);
+        if (dir.exists()) {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+}
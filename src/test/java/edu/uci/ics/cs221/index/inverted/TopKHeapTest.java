@@ -0,0 +1,64 @@
+package edu.uci.ics.cs221.index.inverted;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class TopKHeapTest {
+
+    private static final Comparator<ScoreSet> RANKING = Comparator.comparingDouble((ScoreSet ss) -> -ss.Score)
+            .thenComparingInt(ss -> ss.Doc.SegmentID)
+            .thenComparingInt(ss -> ss.Doc.LocalDocID);
+
+    private static void assertSameRanking(List<ScoreSet> expected, List<ScoreSet> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).Score, actual.get(i).Score, 0.0);
+            assertEquals(expected.get(i).Doc.SegmentID, actual.get(i).Doc.SegmentID);
+            assertEquals(expected.get(i).Doc.LocalDocID, actual.get(i).Doc.LocalDocID);
+        }
+    }
+
+    /* The heap keeps the first K documents of the ranking, ties broken by segment and document ID. */
+    @Test
+    public void sameAsSorting() {
+        Random random = new Random(48);
+        for (int round = 0; round < 200; round++) {
+            int n = random.nextInt(200);
+            Integer k = random.nextInt(4) == 0 ? null : random.nextInt(20);
+            TopKHeap heap = new TopKHeap(k);
+            List<ScoreSet> all = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                // few distinct scores, so there are many ties
+                double score = random.nextInt(10) / 4.0;
+                int segment = random.nextInt(3);
+                int doc = random.nextInt(1000);
+                heap.offer(segment, doc, score);
+                all.add(new ScoreSet(score, new DocID(segment, doc)));
+            }
+            all.sort(RANKING);
+            List<ScoreSet> expected = k == null ? all : all.subList(0, Math.min(k, n));
+            assertSameRanking(expected, heap.drainSorted());
+            assertEquals(0, heap.size());
+        }
+    }
+
+    /* The threshold is the last score kept once the heap is full, merging heaps keeps the global top K. */
+    @Test
+    public void thresholdAndMerge() {
+        TopKHeap first = new TopKHeap(2);
+        first.offer(0, 5, 1.0);
+        assertEquals(Double.NEGATIVE_INFINITY, first.threshold(), 0.0);
+        first.offer(0, 7, 3.0);
+        first.offer(0, 9, 2.0);
+        assertEquals(2.0, first.threshold(), 0.0);
+
+        TopKHeap second = new TopKHeap(2);
+        second.offer(1, 1, 3.0);
+        second.offer(1, 2, 0.5);
+        first.addAll(second);
+        assertSameRanking(Arrays.asList(new ScoreSet(3.0, new DocID(0, 7)), new ScoreSet(3.0, new DocID(1, 1))), first.drainSorted());
+    }
+}
@@ -54,4 +54,27 @@ public class MapdbDocStoreTest {
 
     }
 
+
+    @Test
+    public void testGetDocuments() throws Exception {
+        documentStore = MapdbDocStore.createOrOpen(file);
+        for (int i = 0; i < 100; i += 2) {
+            documentStore.addDocument(i, new Document("test" + i));
+        }
+
+        // dense IDs scan their range, sparse IDs are looked up one by one
+        assertArrayEquals(new Document[]{new Document("test2"), null, new Document("test4"), new Document("test4"), null},
+                documentStore.getDocuments(new int[]{2, 3, 4, 4, 5}));
+        assertArrayEquals(new Document[]{new Document("test0"), null, new Document("test98")},
+                documentStore.getDocuments(new int[]{0, 51, 98}));
+        assertArrayEquals(new Document[0], documentStore.getDocuments(new int[0]));
+        documentStore.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetDocumentsUnsorted() throws Exception {
+        documentStore = MapdbDocStore.createOrOpen(file);
+        documentStore.getDocuments(new int[]{2, 1});
+    }
+
 }